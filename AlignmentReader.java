@@ -0,0 +1,427 @@
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Reads coordinate-sorted alignments (BAM, or SAM text) as a track of read counts in bins of a given size
+ * Each read is counted in the bin of its leftmost aligned base, or with coverage, each of its aligned bases
+ * (CIGAR M, = and X) is counted in its bin, so a bin holds the same as samtools depth summed over it.
+ * Reads are left out as by samtools depth: unmapped, secondary, failing QC and duplicates, as are reads
+ * without a CIGAR (no aligned bases), from BAM and SAM alike.
+ * A reference's bins go from 0 to its length (as given by the header), for every reference with reads;
+ * bins without reads count as zero (minRC). Counts of bins the reads reach past the current one are kept
+ * in a ring until the reads have moved past them, so the reads are read once, as the bins are taken.
+ */
+class AlignmentReader implements TrackReader {
+
+	/** reads left out: unmapped, secondary, failing QC, duplicates */
+	private static final int SKIP_FLAGS = 0x4 | 0x100 | 0x200 | 0x400;
+	private static final String CIGAR_OPS = "MIDNSHP=X";
+
+	/** BAM input, or SAM input (the other is null) */
+	private InputStream bam;
+	private BufferedReader sam;
+	private int binSize;
+	private boolean coverage;
+	private double minRC;
+
+	/** references by index (the header's order, then any other SAM names as reads give them), lengths -1 if not known */
+	private ArrayList<byte[]> refNames = new ArrayList<byte[]>();
+	private ArrayList<Integer> refLengths = new ArrayList<Integer>();
+	private HashMap<String, Integer> refIds = new HashMap<String, Integer>();
+	/** the one reference to read (from its offset in an indexed BAM), -1 for all */
+	private int onlyRef = -1;
+
+	/** current read: reference, leftmost position (0-based) and its record (BAM) or CIGAR (SAM) */
+	private boolean started;
+	private boolean hasRec;
+	private int recRef;
+	private int recPos;
+	private byte[] rec = new byte[1024];
+	private int recCigarOffset;
+	private int recCigarOps;
+	private String recCigar;
+	private byte[] intBuf = new byte[4];
+
+	/** reference of the current bins, and its name */
+	private int chromRef = -1;
+	private byte[] chrom;
+	/** next bin to take, the last bin a read has reached, and the leftmost position of the last read counted */
+	private int nextBin;
+	private int maxBin;
+	private int lastPos;
+	/** counts of bins from nextBin on, by bin & mask */
+	private long[] counts = new long[1024];
+	private int mask = counts.length - 1;
+
+	/** current bin */
+	private int start;
+	private int end;
+	private double readCount;
+
+	/**
+	 * Reads BAM or SAM (told apart by the gzip magic) from start to end, every reference in turn
+	 * @param cov - true to count aligned bases, false to count reads
+	 */
+	public AlignmentReader(InputStream is, int bS, boolean cov, double mRC) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(is, 1 << 16);
+		byte[] magic = new byte[2];
+		in.mark(magic.length);
+		int n = 0;
+		for (int k; n < magic.length && (k = in.read(magic, n, magic.length - n)) >= 0; ) {
+			n += k;
+		}
+		in.reset();
+		binSize = bS;
+		coverage = cov;
+		minRC = mRC;
+		if (BgzfInputStream.isGzip(magic, n)) {
+			bam = new BgzfInputStream(in);
+			readBamHeader();
+		}
+		else {
+			sam = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII), 1 << 16);
+		}
+	}
+
+	private AlignmentReader(BgzfInputStream in, int bS, boolean cov, double mRC) throws IOException {
+		bam = in;
+		binSize = bS;
+		coverage = cov;
+		minRC = mRC;
+		readBamHeader();
+	}
+
+	/**
+	 * Opens one reference of an indexed BAM file, from the virtual offset of its first read
+	 * @param cR - the reference's name and offsets, as given by BamIndex
+	 */
+	public static AlignmentReader openChrom(File f, ChromRange cR, int bS, boolean cov, double mRC) throws IOException {
+		BgzfInputStream in = new BgzfInputStream(f);
+		AlignmentReader ar = new AlignmentReader(in, bS, cov, mRC);
+		Integer ref = ar.refIds.get(cR.getChromNum());
+		if (ref == null) {
+			ar.close();
+			throw new IOException("Reference not in BAM header: " + cR.getChromNum());
+		}
+		ar.onlyRef = ref;
+		in.seek(cR.getStart());
+		return ar;
+	}
+
+	/** @return the names of a BAM file's references, in header order */
+	public static ArrayList<String> referenceNames(File f) throws IOException {
+		AlignmentReader ar = new AlignmentReader(new BgzfInputStream(f), 1, false, 1);
+		try {
+			ArrayList<String> names = new ArrayList<String>();
+			for (byte[] name : ar.refNames) {
+				names.add(new String(name, StandardCharsets.US_ASCII));
+			}
+			return names;
+		} finally {
+			ar.close();
+		}
+	}
+
+	private void readBamHeader() throws IOException {
+		readFully(intBuf, 4);
+		if (intBuf[0] != 'B' || intBuf[1] != 'A' || intBuf[2] != 'M' || intBuf[3] != 1) {
+			throw new IOException("Not a BAM file");
+		}
+		skipFully(readInt()); //header text
+		int nRef = readInt();
+		for (int i = 0; i < nRef; i++) {
+			int lName = readInt();
+			byte[] name = new byte[lName];
+			readFully(name, lName);
+			addRef(new String(name, 0, lName - 1, StandardCharsets.US_ASCII), readInt()); //name is NUL-terminated
+		}
+	}
+
+	private int addRef(String name, int length) {
+		int id = refNames.size();
+		refNames.add(name.getBytes(StandardCharsets.US_ASCII));
+		refLengths.add(length);
+		refIds.put(name, id);
+		return id;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		if (!started) {
+			started = true;
+			readRecord();
+		}
+		if (chromRef < 0 || (nextBin > lastBin() && !(hasRec && recRef == chromRef))) { //on to the next reference
+			if (!hasRec) return false;
+			chromRef = recRef;
+			chrom = refNames.get(chromRef);
+			nextBin = 0;
+			maxBin = -1;
+			lastPos = 0;
+		}
+
+		long binEnd = (long) (nextBin + 1) * binSize;
+		while (hasRec && recRef == chromRef && recPos < binEnd) {
+			addRecord();
+			readRecord();
+		}
+
+		start = nextBin * binSize;
+		end = start + binSize;
+		long count = counts[nextBin & mask];
+		counts[nextBin & mask] = 0;
+		readCount = count > 0 ? count : minRC;
+		nextBin++;
+		return true;
+	}
+
+	/** @return last bin of the current reference: its length's, or further if reads reach past it */
+	private int lastBin() {
+		int length = refLengths.get(chromRef);
+		return Math.max(maxBin, length > 0 ? (length - 1) / binSize : -1);
+	}
+
+	/** Counts the current read into its bins */
+	private void addRecord() {
+		if (recPos < lastPos) {
+			System.err.println("Alignments must be sorted by coordinate: " + new String(chrom, StandardCharsets.US_ASCII)
+					+ ":" + (recPos + 1));
+			System.exit(1);
+		}
+		lastPos = recPos;
+		if (!coverage) {
+			add(recPos / binSize, 1);
+			return;
+		}
+
+		int refPos = recPos;
+		if (bam != null) {
+			for (int i = 0; i < recCigarOps; i++) {
+				int v = intAt(rec, recCigarOffset + 4 * i);
+				refPos = addCigarOp(refPos, v & 0xf, v >>> 4);
+			}
+			return;
+		}
+		int len = 0;
+		for (int i = 0; i < recCigar.length(); i++) {
+			char c = recCigar.charAt(i);
+			if (c >= '0' && c <= '9') {
+				len = len * 10 + (c - '0');
+				continue;
+			}
+			int op = CIGAR_OPS.indexOf(c);
+			if (op < 0) {
+				System.err.println("Improper CIGAR: " + recCigar);
+				System.exit(1);
+			}
+			refPos = addCigarOp(refPos, op, len);
+			len = 0;
+		}
+	}
+
+	/**
+	 * Counts the aligned bases of one CIGAR operation
+	 * @return reference position after the operation
+	 */
+	private int addCigarOp(int refPos, int op, int len) {
+		switch (op) {
+		case 0: //M
+		case 7: //=
+		case 8: //X
+			for (int a = refPos, e = refPos + len; a < e; ) {
+				int bin = a / binSize;
+				int upTo = (int) Math.min(e, (long) (bin + 1) * binSize);
+				add(bin, upTo - a);
+				a = upTo;
+			}
+			return refPos + len;
+		case 2: //D
+		case 3: //N
+			return refPos + len;
+		default: //I, S, H, P
+			return refPos;
+		}
+	}
+
+	private void add(int bin, long v) {
+		if (bin - nextBin >= counts.length) {
+			int cap = counts.length;
+			while (bin - nextBin >= cap) {
+				cap <<= 1;
+			}
+			long[] c = new long[cap];
+			for (int b = nextBin; b <= maxBin; b++) {
+				c[b & (cap - 1)] = counts[b & mask];
+			}
+			counts = c;
+			mask = cap - 1;
+		}
+		counts[bin & mask] += v;
+		if (bin > maxBin) {
+			maxBin = bin;
+		}
+	}
+
+	/** Reads the next read that is counted, leaving hasRec false at the end (of the input, or the one reference) */
+	private void readRecord() throws IOException {
+		boolean read = bam != null ? readBamRecord() : readSamRecord();
+		//unplaced reads (sorted last) and reads past the one reference end the reads counted
+		hasRec = read && recRef >= 0 && (onlyRef < 0 || recRef == onlyRef);
+	}
+
+	/** @return false at the end of the input (reads left out are skipped, unplaced reads returned with recRef -1) */
+	private boolean readBamRecord() throws IOException {
+		while (true) {
+			int n = 0;
+			for (int k; n < 4 && (k = bam.read(intBuf, n, 4 - n)) >= 0; ) {
+				n += k;
+			}
+			if (n == 0) return false;
+			if (n < 4) throw new EOFException("Truncated BAM record");
+			int blockSize = intAt(intBuf, 0);
+			if (blockSize > rec.length) {
+				rec = new byte[Math.max(blockSize, 2 * rec.length)];
+			}
+			readFully(rec, blockSize);
+			recRef = intAt(rec, 0);
+			recPos = intAt(rec, 4);
+			int flag = (rec[14] & 0xff) | (rec[15] & 0xff) << 8;
+			recCigarOps = (rec[12] & 0xff) | (rec[13] & 0xff) << 8;
+			if (((flag & SKIP_FLAGS) != 0 || recCigarOps == 0) && recRef >= 0) continue;
+			recCigarOffset = 32 + (rec[8] & 0xff);
+			return true;
+		}
+	}
+
+	private boolean readSamRecord() throws IOException {
+		String line;
+		while ((line = sam.readLine()) != null) {
+			if (line.isEmpty()) continue;
+			if (line.charAt(0) == '@') {
+				if (line.startsWith("@SQ\t")) {
+					addSamRef(line);
+				}
+				continue;
+			}
+			try {
+				//QNAME FLAG RNAME POS MAPQ CIGAR
+				int f1 = line.indexOf('\t') + 1;
+				int f2 = line.indexOf('\t', f1) + 1;
+				int f3 = line.indexOf('\t', f2) + 1;
+				int f4 = line.indexOf('\t', f3) + 1;
+				int f5 = line.indexOf('\t', f4) + 1;
+				int f6 = line.indexOf('\t', f5);
+				int flag = Integer.parseInt(line.substring(f1, f2 - 1));
+				String rname = line.substring(f2, f3 - 1);
+				recCigar = f6 < 0 ? line.substring(f5) : line.substring(f5, f6);
+				if (rname.equals("*")) {
+					recRef = -1;
+					return true;
+				}
+				if ((flag & SKIP_FLAGS) != 0 || recCigar.equals("*")) continue;
+				Integer ref = refIds.get(rname);
+				recRef = ref != null ? ref : addRef(rname, -1);
+				recPos = Integer.parseInt(line.substring(f3, f4 - 1)) - 1;
+				return true;
+			} catch (RuntimeException e) { //a field missing or not a number
+				System.err.println("Improper SAM line: " + line);
+				System.exit(1);
+			}
+		}
+		return false;
+	}
+
+	/** Adds the reference of an @SQ header line (SN: name, LN: length) */
+	private void addSamRef(String line) {
+		String name = null;
+		int length = -1;
+		for (String field : line.split("\t")) {
+			if (field.startsWith("SN:")) {
+				name = field.substring(3);
+			}
+			else if (field.startsWith("LN:")) {
+				length = Integer.parseInt(field.substring(3));
+			}
+		}
+		if (name != null && !refIds.containsKey(name)) {
+			addRef(name, length);
+		}
+	}
+
+	private static int intAt(byte[] b, int off) {
+		return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+	}
+
+	private int readInt() throws IOException {
+		readFully(intBuf, 4);
+		return intAt(intBuf, 0);
+	}
+
+	private void readFully(byte[] b, int len) throws IOException {
+		for (int n = 0; n < len; ) {
+			int k = bam.read(b, n, len - n);
+			if (k < 0) throw new EOFException("Truncated BAM file");
+			n += k;
+		}
+	}
+
+	private void skipFully(int len) throws IOException {
+		byte[] b = new byte[Math.min(len, 1 << 16)];
+		for (int n = 0; n < len; ) {
+			int k = bam.read(b, 0, Math.min(b.length, len - n));
+			if (k < 0) throw new EOFException("Truncated BAM file");
+			n += k;
+		}
+	}
+
+	@Override
+	public boolean chromEquals(byte[] c) {
+		return Arrays.equals(chrom, c);
+	}
+
+	@Override
+	public byte[] getChromBytes() {
+		return chrom;
+	}
+
+	@Override
+	public int getStart() {
+		return start;
+	}
+
+	@Override
+	public int getEnd() {
+		return end;
+	}
+
+	/** @return the read count used in the window */
+	@Override
+	public double getValue() {
+		return readCount;
+	}
+
+	@Override
+	public String lineString() {
+		return new String(chrom, StandardCharsets.US_ASCII) + "\t" + start + "\t" + end + "\t" + readCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (bam != null) {
+			bam.close();
+		}
+		else {
+			sam.close();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Writes a track on the shared pool, a block of intervals at a time, while the next block is being computed
+ * Intervals are collected into a block; a full block is handed to a step on the pool that formats and writes it,
+ * and the next block is collected into a second buffer. Only one block is written at a time, so the blocks
+ * are written in order, and a computation that gets ahead of the disk waits for the write before it
+ * (the time it waits is kept).
+ */
+class AsyncTrackWriter implements TrackWriter {
+
+	/** A block of intervals, all of one chromosome */
+	private static class Block {
+		byte[] chrom;
+		int[] starts;
+		int[] ends;
+		double[] values;
+		int size;
+
+		Block(int capacity) {
+			starts = new int[capacity];
+			ends = new int[capacity];
+			values = new double[capacity];
+		}
+	}
+
+	private TrackWriter tw;
+	/** block being collected */
+	private Block current;
+	/** block being written, if any */
+	private Block writing;
+	private TaskScheduler.Stage<Block> writeStage;
+
+	/** time spent waiting for a block to be written */
+	private long waitNanos;
+
+	public AsyncTrackWriter(TrackWriter t, int capacity) {
+		tw = t;
+		current = new Block(capacity);
+		writing = new Block(capacity);
+	}
+
+	@Override
+	public void add(byte[] chrom, int start, int end, double cMBF) throws IOException {
+		if (current.size > 0 && (current.size == current.values.length || !Arrays.equals(chrom, current.chrom))) {
+			submitCurrent();
+		}
+		if (current.size == 0) {
+			current.chrom = chrom;
+		}
+		current.starts[current.size] = start;
+		current.ends[current.size] = end;
+		current.values[current.size] = cMBF;
+		current.size++;
+	}
+
+	/** Waits for the block being written, then starts writing the collected block */
+	private void submitCurrent() throws IOException {
+		waitForWrite();
+		final Block b = current;
+		current = writing;
+		current.size = 0;
+		writing = b;
+		writeStage = TaskScheduler.fork(new Callable<Block>() {
+			@Override
+			public Block call() throws IOException {
+				for (int j = 0; j < b.size; j++) {
+					tw.add(b.chrom, b.starts[j], b.ends[j], b.values[j]);
+				}
+				return b;
+			}
+		});
+	}
+
+	private void waitForWrite() throws IOException {
+		if (writeStage == null) return;
+		long t0 = System.nanoTime();
+		try {
+			writeStage.await();
+		} finally {
+			writeStage = null;
+		}
+		waitNanos += System.nanoTime() - t0;
+	}
+
+	/** @return time the computation spent waiting for blocks to be written */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (current.size > 0) {
+				submitCurrent();
+			}
+			waitForWrite();
+		} finally {
+			tw.close();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * The index (.bai) of a coordinate-sorted BAM file, read for where each reference's reads lie,
+ * so the references can be read in parallel, each from its own offset
+ * The offsets are BGZF virtual offsets (file offset of the block << 16 | offset in the block), so a range's
+ * length is its compressed size << 16, which is as good as bytes for ordering chromosomes by size.
+ */
+class BamIndex {
+
+	/** pseudo-bin whose first chunk is the reference's first and last offsets */
+	private static final int META_BIN = 37450;
+
+	/** @return the index of a BAM file (file.bam.bai or file.bai), null if it has none */
+	public static File indexFile(File bam) {
+		File bai = new File(bam.getPath() + ".bai");
+		if (bai.isFile()) return bai;
+		String path = bam.getPath();
+		if (path.endsWith(".bam")) {
+			bai = new File(path.substring(0, path.length() - 4) + ".bai");
+			if (bai.isFile()) return bai;
+		}
+		return null;
+	}
+
+	/** @return true if the file starts as gzip (BGZF), as a BAM file does */
+	public static boolean isBam(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] magic = new byte[2];
+			int n = in.read(magic);
+			return BgzfInputStream.isGzip(magic, n);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return for each reference with reads, in header order: its name, the virtual offset of its first read
+	 * and the offset past its last
+	 */
+	public static ArrayList<ChromRange> chromRanges(File bam, File bai) throws IOException {
+		ArrayList<String> names = AlignmentReader.referenceNames(bam);
+		ArrayList<ChromRange> ranges = new ArrayList<ChromRange>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(bai), 1 << 16));
+		try {
+			byte[] magic = new byte[4];
+			in.readFully(magic);
+			if (magic[0] != 'B' || magic[1] != 'A' || magic[2] != 'I' || magic[3] != 1) {
+				throw new IOException("Not a BAM index: " + bai.getPath());
+			}
+			int nRef = readInt(in);
+			if (nRef != names.size()) {
+				throw new IOException("BAM index does not match the BAM header: " + bai.getPath());
+			}
+			for (int r = 0; r < nRef; r++) {
+				long first = Long.MAX_VALUE, last = -1, metaFirst = -1, metaLast = -1;
+				int nBin = readInt(in);
+				for (int i = 0; i < nBin; i++) {
+					int bin = readInt(in);
+					int nChunk = readInt(in);
+					for (int c = 0; c < nChunk; c++) {
+						long beg = readLong(in);
+						long end = readLong(in);
+						if (bin == META_BIN) {
+							if (c == 0) {
+								metaFirst = beg;
+								metaLast = end;
+							}
+						}
+						else {
+							first = Math.min(first, beg);
+							last = Math.max(last, end);
+						}
+					}
+				}
+				int nIntv = readInt(in);
+				for (int i = 0; i < nIntv; i++) { //linear index, not needed
+					readLong(in);
+				}
+				if (last < 0) continue; //no reads
+				if (metaFirst >= 0) {
+					first = metaFirst;
+					last = metaLast;
+				}
+				ranges.add(new ChromRange(names.get(r), first, last));
+			}
+		} finally {
+			in.close();
+		}
+		return ranges;
+	}
+
+	private static int readInt(DataInputStream in) throws IOException {
+		return Integer.reverseBytes(in.readInt());
+	}
+
+	private static long readLong(DataInputStream in) throws IOException {
+		return Long.reverseBytes(in.readLong());
+	}
+}
@@ -0,0 +1,408 @@
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+
+/**
+ * Finds the byte range of each chromosome in a sorted BED file without reading the whole file
+ * Lines of a chromosome are contiguous, so the end of each chromosome is found by a galloping
+ * binary search over line starts; only O(log n) small reads are made per chromosome.
+ * Lines that do not start with "chr" (headers, etc) are not part of any chromosome.
+ * 
+ * Once every chromosome has been read, the ranges (with line counts and interval sizes) can be saved
+ * to a sidecar file next to the input, so later runs on the same input skip the search entirely.
+ */
+class BedChromIndex {
+
+	/** ranges smaller than this are scanned line by line instead of bisected */
+	private static final long SCAN_SIZE = 1 << 16;
+
+	public static final String SIDECAR_EXT = ".gmidx";
+	private static final String SIDECAR_HEADER = "#GMIM chromosome index v1";
+	/** bytes sampled from the head and tail of the input for its fingerprint */
+	private static final int FINGERPRINT_BLOCK = 1 << 16;
+	/** bytes sampled at each chromosome start for the fingerprint */
+	private static final int FINGERPRINT_LINE = 256;
+
+	private FileChannel ch;
+	private long size;
+	/** cached block of the file, so scanning nearby lines does not re-read */
+	private ByteBuffer block;
+	private long blockOff;
+	private int blockLen;
+
+	/** chromosome of the last line read (null if not a data line) and the offset of the line after it */
+	private byte[] lineChrom;
+	private long nextLine;
+	/** interval of the last line read (-1 if it does not parse) */
+	private int binStart;
+	private int binEnd;
+
+	private BedChromIndex(File f) throws IOException {
+		ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		size = ch.size();
+		block = ByteBuffer.allocate(1 << 16);
+		blockOff = -1;
+		blockLen = 0;
+	}
+
+	/**
+	 * @return the chromosome byte ranges of the file, in file order
+	 * @throws IOException - if the file cannot be read, or a chromosome appears in more than one block (unsorted)
+	 */
+	public static ArrayList<ChromRange> build(File f) throws IOException {
+		BedChromIndex idx = new BedChromIndex(f);
+		try {
+			return idx.build();
+		} finally {
+			idx.close();
+		}
+	}
+
+	/** Opens the file for looking up lines inside chromosome ranges */
+	public static BedChromIndex open(File f) throws IOException {
+		return new BedChromIndex(f);
+	}
+
+	public void close() throws IOException {
+		ch.close();
+	}
+
+	public int getBinStart() {
+		return binStart;
+	}
+
+	public int getBinEnd() {
+		return binEnd;
+	}
+
+	/**
+	 * Reads the first data line of the range
+	 * @return false if the range has no data line
+	 */
+	public boolean readFirstLine(ChromRange cr) throws IOException {
+		for (long off = cr.getStart(); off < cr.getEnd(); off = nextLine) {
+			readLine(off);
+			if (lineChrom != null) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the last data line of the range
+	 * @return false if the range has no data line
+	 */
+	public boolean readLastLine(ChromRange cr) throws IOException {
+		long e = cr.getEnd();
+		while (e > cr.getStart()) {
+			//back up over the line terminator, then to the start of the line
+			long p = e - 1;
+			if (byteAt(p) == '\n') p--;
+			while (p >= cr.getStart() && byteAt(p) != '\n') p--;
+			long ls = p + 1;
+
+			readLine(ls);
+			if (lineChrom != null) return true;
+			e = ls;
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the first data line of the range whose start is at or after pos (the range must be sorted by start)
+	 * @return its offset, or the range end if there is none
+	 */
+	public long offsetOfBin(ChromRange cr, int pos) throws IOException {
+		long lo = cr.getStart();
+		long hi = cr.getEnd();
+
+		//invariant: every line before lo starts before pos, every line from hi on starts at or after pos
+		while (hi - lo > SCAN_SIZE) {
+			long ls = lineStartAtOrAfter(lo + (hi - lo) / 2);
+			if (ls >= hi) break;
+			if (nextBinBefore(ls, hi, pos)) {
+				lo = nextLine;
+			}
+			else {
+				hi = ls;
+			}
+		}
+
+		for (long off = lo; off < hi; off = nextLine) {
+			readLine(off);
+			if (lineChrom != null && binStart >= pos) return off;
+		}
+		return hi;
+	}
+
+	/** true if the first data line at or after off (before hi) starts before pos; nextLine is then after it */
+	private boolean nextBinBefore(long off, long hi, int pos) throws IOException {
+		for (; off < hi; off = nextLine) {
+			readLine(off);
+			if (lineChrom != null) return binStart < pos;
+		}
+		return false;
+	}
+
+	public static File sidecarFile(File f) {
+		return new File(f.getPath() + SIDECAR_EXT);
+	}
+
+	/**
+	 * Loads the chromosome ranges saved next to the input by an earlier run
+	 * @return the ranges, or null if there is no sidecar or it does not match the input anymore
+	 */
+	public static ArrayList<ChromRange> load(File f) {
+		File sidecar = sidecarFile(f);
+		if (!sidecar.isFile()) return null;
+
+		ArrayList<ChromRange> ranges = new ArrayList<ChromRange>();
+		String[] info = null;
+		try {
+			BufferedReader rd = new BufferedReader(new FileReader(sidecar));
+			try {
+				if (!SIDECAR_HEADER.equals(rd.readLine())) return null;
+				info = rd.readLine().split("\t");
+
+				String line;
+				while ((line = rd.readLine()) != null) {
+					if (line.isEmpty() || line.startsWith("#")) continue;
+					String[] ra = line.split("\t");
+					ranges.add(new ChromRange(ra[0], Long.parseLong(ra[1]), Long.parseLong(ra[2]),
+							Long.parseLong(ra[3]), Integer.parseInt(ra[4])));
+				}
+			} finally {
+				rd.close();
+			}
+
+			if (info.length != 3 || Long.parseLong(info[0]) != f.length() || Long.parseLong(info[1]) != f.lastModified()
+					|| !info[2].equals(fingerprint(f, ranges))) {
+				return null;
+			}
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) { //malformed sidecar
+			return null;
+		}
+
+		return ranges;
+	}
+
+	/**
+	 * Saves the ranges next to the input for later runs
+	 * Only complete ranges are saved (every chromosome read, so line counts and interval sizes are known)
+	 * @return false if the ranges are incomplete or the sidecar could not be written
+	 */
+	public static boolean save(File f, ArrayList<ChromRange> ranges) {
+		for (ChromRange cr : ranges) {
+			if (cr.getLines() < 0) return false;
+		}
+
+		File sidecar = sidecarFile(f);
+		try {
+			PrintWriter pw = new PrintWriter(sidecar);
+			pw.println(SIDECAR_HEADER);
+			pw.println(f.length() + "\t" + f.lastModified() + "\t" + fingerprint(f, ranges));
+			pw.println("#chrom\tstartOffset\tendOffset\tlines\tintervalSize");
+			for (ChromRange cr : ranges) {
+				pw.println(cr.getChromNum() + "\t" + cr.getStart() + "\t" + cr.getEnd() + "\t" + cr.getLines() + "\t" + cr.getIntervalSize());
+			}
+			pw.close();
+			return !pw.checkError();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/** CRC32 of the head and tail of the file and of the start of every chromosome */
+	private static String fingerprint(File f, ArrayList<ChromRange> ranges) throws IOException {
+		FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			long size = fc.size();
+			CRC32 crc = new CRC32();
+			updateCRC(crc, fc, 0, FINGERPRINT_BLOCK);
+			updateCRC(crc, fc, Math.max(0, size - FINGERPRINT_BLOCK), FINGERPRINT_BLOCK);
+			for (ChromRange cr : ranges) {
+				updateCRC(crc, fc, cr.getStart(), FINGERPRINT_LINE);
+			}
+			return Long.toHexString(crc.getValue());
+		} finally {
+			fc.close();
+		}
+	}
+
+	private static void updateCRC(CRC32 crc, FileChannel fc, long off, int len) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(len);
+		while (bb.hasRemaining()) {
+			int n = fc.read(bb, off + bb.position());
+			if (n <= 0) break;
+		}
+		crc.update(bb.array(), 0, bb.position());
+	}
+
+	private ArrayList<ChromRange> build() throws IOException {
+		ArrayList<ChromRange> ranges = new ArrayList<ChromRange>();
+		HashSet<String> seen = new HashSet<String>();
+		ChromRange last = null;
+		long off = 0;
+
+		while (off < size) {
+			readLine(off);
+			if (lineChrom == null) { //skip non data lines
+				off = nextLine;
+				continue;
+			}
+
+			byte[] chrom = lineChrom;
+			long end = findChromEnd(off, chrom);
+			String chromNum = new String(chrom, StandardCharsets.US_ASCII);
+
+			if (last != null && last.getChromNum().equals(chromNum)) { //only skipped lines in between
+				last.setEnd(end);
+			}
+			else {
+				if (!seen.add(chromNum)) {
+					throw new IOException("Input is not sorted: " + chromNum + " appears in more than one block");
+				}
+				last = new ChromRange(chromNum, off, end);
+				ranges.add(last);
+			}
+			off = end;
+		}
+
+		return ranges;
+	}
+
+	/**
+	 * @param lo - offset of a line of chrom
+	 * @return offset of the first line after lo that is not chrom (or the file size)
+	 */
+	private long findChromEnd(long lo, byte[] chrom) throws IOException {
+		long hi = size;
+
+		//gallop forward so small chromosomes only cost a few reads
+		for (long step = SCAN_SIZE; lo + step < hi; step *= 2) {
+			long ls = lineStartAtOrAfter(lo + step);
+			if (ls >= hi) break;
+			if (isChrom(ls, chrom)) {
+				lo = ls;
+			}
+			else {
+				hi = ls;
+				break;
+			}
+		}
+
+		while (hi - lo > SCAN_SIZE) {
+			long ls = lineStartAtOrAfter(lo + (hi - lo) / 2);
+			if (ls >= hi) break; //no line starts in the upper half, scan the rest
+			if (isChrom(ls, chrom)) {
+				lo = ls;
+			}
+			else {
+				hi = ls;
+			}
+		}
+
+		for (long off = lo; off < hi; off = nextLine) {
+			if (!isChrom(off, chrom)) return off;
+		}
+		return hi;
+	}
+
+	private boolean isChrom(long off, byte[] chrom) throws IOException {
+		readLine(off);
+		return lineChrom != null && Arrays.equals(lineChrom, chrom);
+	}
+
+	/** makes sure the byte at offset p is in the cached block (p must be < size) */
+	private void fetch(long p) throws IOException {
+		if (p >= blockOff && p < blockOff + blockLen) return;
+		block.clear();
+		blockOff = p - p % block.capacity(); //aligned, so scanning backwards is cached too
+		blockLen = 0;
+		while (block.hasRemaining() && blockOff + blockLen < size) {
+			int n = ch.read(block, blockOff + blockLen);
+			if (n <= 0) break;
+			blockLen += n;
+		}
+	}
+
+	private byte byteAt(long p) throws IOException {
+		fetch(p);
+		return block.array()[(int) (p - blockOff)];
+	}
+
+	/** @return offset of the first line starting at or after off */
+	private long lineStartAtOrAfter(long off) throws IOException {
+		if (off == 0) return 0;
+		for (long p = off - 1; p < size; p++) {
+			if (byteAt(p) == '\n') return p + 1;
+		}
+		return size;
+	}
+
+	/** reads the line starting at off, setting lineChrom, binStart/binEnd and nextLine */
+	private void readLine(long off) throws IOException {
+		long p = off;
+		while (p < size && !isSpace(byteAt(p)) && byteAt(p) != '\n') p++;
+
+		lineChrom = null;
+		int len = (int) (p - off);
+		if (len >= 3 && byteAt(off) == 'c' && byteAt(off + 1) == 'h' && byteAt(off + 2) == 'r') {
+			lineChrom = new byte[len];
+			for (int i = 0; i < len; i++) {
+				lineChrom[i] = byteAt(off + i);
+			}
+		}
+
+		binStart = -1;
+		binEnd = -1;
+		if (lineChrom != null) {
+			p = readBinField(p);
+			binStart = fieldValue;
+			p = readBinField(p);
+			binEnd = fieldValue;
+		}
+
+		while (p < size && byteAt(p) != '\n') p++;
+		nextLine = Math.min(p + 1, size);
+	}
+
+	/** value of the last field read by readBinField (-1 if not a non-negative int) */
+	private int fieldValue;
+
+	/** reads the whitespace separated field after p into fieldValue, @return offset after the field */
+	private long readBinField(long p) throws IOException {
+		while (p < size && isSpace(byteAt(p))) p++;
+		long v = 0;
+		boolean any = false;
+		boolean valid = true;
+		for (; p < size && !isSpace(byteAt(p)) && byteAt(p) != '\n'; p++) {
+			int d = byteAt(p) - '0';
+			if (d < 0 || d > 9 || v > Integer.MAX_VALUE) {
+				valid = false;
+			}
+			else {
+				v = v * 10 + d;
+			}
+			any = true;
+		}
+		fieldValue = any && valid && v <= Integer.MAX_VALUE ? (int) v : -1;
+		return p;
+	}
+
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B;
+	}
+}
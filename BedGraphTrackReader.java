@@ -0,0 +1,78 @@
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads a bedGraph cMBF track (skipping its track line)
+ */
+class BedGraphTrackReader implements TrackReader {
+
+	private BedReader br;
+
+	public BedGraphTrackReader(File f) throws IOException {
+		br = new BedReader(new FileInputStream(f));
+		br.next(); //ignore header
+	}
+
+	/** Reads the lines in the byte range [start, end) of the track, which must not hold its header */
+	public BedGraphTrackReader(File f, long start, long end) throws IOException {
+		br = new BedReader(new ByteRangeInputStream(f, start, end));
+	}
+
+	/**
+	 * Reads the chromosome's intervals that start in [from, to), found by binary search in its byte range
+	 */
+	public static BedGraphTrackReader open(File f, ChromRange cr, int from, int to) throws IOException {
+		BedChromIndex idx = BedChromIndex.open(f);
+		long start;
+		long end;
+		try {
+			start = idx.offsetOfBin(cr, from);
+			end = idx.offsetOfBin(new ChromRange(cr.getChromNum(), start, cr.getEnd()), to);
+		} finally {
+			idx.close();
+		}
+		return new BedGraphTrackReader(f, start, end);
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		return br.next();
+	}
+
+	@Override
+	public boolean chromEquals(byte[] chrom) {
+		return br.chromEquals(chrom);
+	}
+
+	@Override
+	public byte[] getChromBytes() {
+		return br.getChromBytes();
+	}
+
+	@Override
+	public int getStart() {
+		return br.getInt(1);
+	}
+
+	@Override
+	public int getEnd() {
+		return br.getInt(2);
+	}
+
+	@Override
+	public double getValue() {
+		return br.getDouble(3);
+	}
+
+	@Override
+	public String lineString() {
+		return br.lineString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		br.close();
+	}
+}
@@ -0,0 +1,97 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes a cMBF track as bedGraph: chr	start	end	cMBF (5 decimals)
+ */
+class BedGraphTrackWriter implements TrackWriter {
+
+	private BedGraphWriter pw;
+
+	/**
+	 * @param header - true to start with the track line (false for the later chunks of a chromosome)
+	 */
+	public BedGraphTrackWriter(File f, boolean header) throws IOException {
+		pw = new BedGraphWriter(f);
+		if (header) {
+			writeHeader(pw, f);
+		}
+	}
+
+	/** Writes the bedGraph track line of a sample's output file */
+	static void writeHeader(BedGraphWriter pw, File outFile) throws IOException {
+		String outFilePath = outFile.getPath().substring(0, outFile.getPath().length() - ".bedGraph".length());
+		pw.write("track type=bedGraph name=\"" + outFilePath + "\"" + " description=\"" + outFilePath + "\" "
+				+ "visibility=full autoScale=Off alwaysZero=On maxHeightPixels=128:30:11 viewLimits=0:1"); //header
+		pw.newLine();
+	}
+
+	@Override
+	public void add(byte[] chrom, int start, int end, double cMBF) throws IOException {
+		pw.write(chrom);
+		pw.write('\t');
+		pw.writeInt(start);
+		pw.write('\t');
+		pw.writeInt(end);
+		pw.write('\t');
+		pw.writeFixed(cMBF, 5);
+		pw.write('\n');
+	}
+
+	@Override
+	public void close() throws IOException {
+		pw.close();
+	}
+
+	/**
+	 * Appends bedGraph tracks, without their first (track) lines, to the end of outFile
+	 * The bytes are copied by the file channels (no decoding), starting after each track's first line
+	 */
+	public static void append(List<File> trackFiles, File outFile) throws IOException {
+		append(trackFiles, outFile, true);
+	}
+
+	/**
+	 * Appends files to the end of outFile, copied by the file channels
+	 * @param skipHeaders - true to leave out each file's first line, false to copy files whole (as the
+	 * headerless part files of a chromosome's chunks, bedGraph or binary)
+	 */
+	static void append(List<File> files, File outFile, boolean skipHeaders) throws IOException {
+		FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		try {
+			for (File f : files) {
+				FileChannel in = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+				try {
+					long size = in.size();
+					for (long p = skipHeaders ? headerLength(in) : 0; p < size; ) {
+						p += in.transferTo(p, size - p, out);
+					}
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/** @return length of the first line, with its terminator */
+	private static long headerLength(FileChannel in) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(8192);
+		long pos = 0;
+		while (in.read(bb, pos) > 0) {
+			bb.flip();
+			while (bb.hasRemaining()) {
+				pos++;
+				if (bb.get() == '\n') return pos;
+			}
+			bb.clear();
+		}
+		return pos;
+	}
+}
@@ -0,0 +1,174 @@
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Writes bedGraph lines into a reusable byte buffer, flushed in large blocks
+ * Numbers are encoded directly (no Formatter/String per line); the output is byte-identical to
+ * printf("%.5f") for fixed precision values and to Double.toString for full precision values,
+ * except that the decimal separator is always '.'
+ */
+class BedGraphWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+	private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+	/** how close to a rounding tie (in units of the last digit) a value is formatted the slow way */
+	private static final double TIE_MARGIN = 1e-6;
+
+	private OutputStream out;
+	private byte[] buf;
+	private int count;
+	/** reused for full precision doubles */
+	private StringBuilder sb = new StringBuilder(32);
+	private byte[] digits = new byte[20];
+
+	public BedGraphWriter(File f) throws FileNotFoundException {
+		this(new FileOutputStream(f));
+	}
+
+	public BedGraphWriter(OutputStream os) {
+		out = os;
+		buf = new byte[BUFFER_SIZE];
+		count = 0;
+	}
+
+	private void ensure(int n) throws IOException {
+		if (count + n > buf.length) {
+			flushBuffer();
+			if (n > buf.length) {
+				buf = new byte[n];
+			}
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buf, 0, count);
+			count = 0;
+		}
+	}
+
+	public void write(char c) throws IOException {
+		ensure(1);
+		buf[count++] = (byte) c;
+	}
+
+	public void write(byte[] b) throws IOException {
+		ensure(b.length);
+		System.arraycopy(b, 0, buf, count, b.length);
+		count += b.length;
+	}
+
+	/** Writes a string (headers, etc) in the default charset, same as PrintWriter */
+	public void write(String s) throws IOException {
+		write(s.getBytes(Charset.defaultCharset()));
+	}
+
+	/** Writes the platform line separator, same as println */
+	public void newLine() throws IOException {
+		write(LINE_SEPARATOR);
+	}
+
+	public void writeInt(int v) throws IOException {
+		writeLong(v);
+	}
+
+	public void writeLong(long v) throws IOException {
+		ensure(20);
+		if (v < 0) {
+			if (v == Long.MIN_VALUE) {
+				write(Long.toString(v));
+				return;
+			}
+			buf[count++] = '-';
+			v = -v;
+		}
+		int n = 0;
+		do {
+			digits[n++] = (byte) ('0' + v % 10);
+			v /= 10;
+		} while (v > 0);
+		while (n > 0) {
+			buf[count++] = digits[--n];
+		}
+	}
+
+	/**
+	 * Writes v with a fixed number of decimals, same as printf("%.<decimals>f", v)
+	 * Values too close to a rounding tie, negative or very large values go through String.format
+	 */
+	public void writeFixed(double v, int decimals) throws IOException {
+		long r = fixedDigits(v, decimals);
+		if (r < 0) {
+			write(String.format(Locale.ROOT, "%." + decimals + "f", v));
+			return;
+		}
+		writeLong(r / POW10[decimals]);
+		if (decimals > 0) {
+			ensure(decimals + 1);
+			buf[count++] = '.';
+			long f = r % POW10[decimals];
+			for (int i = decimals - 1; i >= 0; i--) {
+				buf[count + i] = (byte) ('0' + f % 10);
+				f /= 10;
+			}
+			count += decimals;
+		}
+	}
+
+	/**
+	 * @return v as written by writeFixed(v, decimals) and read back, so a product of values computed in memory
+	 * is the same as one of values read from a written track
+	 */
+	public static double roundFixed(double v, int decimals) {
+		long r = fixedDigits(v, decimals);
+		if (r < 0) {
+			return Double.parseDouble(String.format(Locale.ROOT, "%." + decimals + "f", v));
+		}
+		return r / (double) POW10[decimals]; //both exact, so correctly rounded like parseDouble
+	}
+
+	/**
+	 * @return v * 10^decimals rounded half up, or -1 if v is to be formatted the slow way
+	 */
+	private static long fixedDigits(double v, int decimals) {
+		double scaled = decimals < POW10.length ? v * POW10[decimals] : -1;
+		if (scaled >= 0 && scaled < 1e9 && Double.doubleToRawLongBits(v) >= 0) { //fraction good to well under TIE_MARGIN
+			long fl = (long) scaled;
+			double frac = scaled - fl;
+			if (Math.abs(frac - 0.5) > TIE_MARGIN) {
+				return frac > 0.5 ? fl + 1 : fl;
+			}
+		}
+		return -1;
+	}
+
+	/** Writes v at full precision, same as Double.toString(v) */
+	public void writeDouble(double v) throws IOException {
+		sb.setLength(0);
+		sb.append(v);
+		ensure(sb.length());
+		for (int i = 0; i < sb.length(); i++) {
+			buf[count++] = (byte) sb.charAt(i);
+		}
+	}
+
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flushBuffer();
+		out.close();
+	}
+}
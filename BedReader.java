@@ -0,0 +1,290 @@
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads whitespace separated BED/bedGraph lines straight from a byte buffer
+ * Fields are decoded in place into primitives, so no String is made per line
+ * (only the chromosome name when asked for, and the line itself for error messages)
+ */
+class BedReader implements Closeable {
+
+	static final int BUFFER_SIZE = 1 << 20;
+	/** fields tokenized per line by default: chrom, start, end, value (and one more to know there are extra columns) */
+	private static final int MAX_FIELDS = 5;
+
+	private InputStream in;
+	private byte[] buf;
+	/** start of unread bytes */
+	private int pos;
+	/** end of valid bytes in buf */
+	private int lim;
+	private boolean eof;
+
+	/** current line, excluding line terminator */
+	private int lineStart;
+	private int lineEnd;
+
+	private int nFields;
+	private int[] fieldStart;
+	private int[] fieldEnd;
+
+	public BedReader(InputStream is) {
+		this(is, BUFFER_SIZE);
+	}
+
+	public BedReader(InputStream is, int bufferSize) {
+		this(is, bufferSize, MAX_FIELDS);
+	}
+
+	/** @param maxFields - fields tokenized per line (at most) */
+	public BedReader(InputStream is, int bufferSize, int maxFields) {
+		in = is;
+		fieldStart = new int[maxFields];
+		fieldEnd = new int[maxFields];
+		buf = new byte[bufferSize];
+		pos = 0;
+		lim = 0;
+		eof = false;
+	}
+
+	/**
+	 * Moves to the next line that is not blank
+	 * @return false if the end of the input was reached
+	 */
+	public boolean next() throws IOException {
+		while (nextLine()) {
+			tokenize();
+			if (nFields > 0) return true;
+		}
+		return false;
+	}
+
+	private boolean nextLine() throws IOException {
+		int scan = pos;
+		while (true) {
+			for (int i = scan; i < lim; i++) {
+				if (buf[i] == '\n') {
+					setLine(pos, i);
+					pos = i + 1;
+					return true;
+				}
+			}
+			if (eof) {
+				if (pos < lim) { //last line without a terminator
+					setLine(pos, lim);
+					pos = lim;
+					return true;
+				}
+				return false;
+			}
+			scan = lim - pos;
+			fill();
+		}
+	}
+
+	/** moves the unread bytes to the front of the buffer (growing it for long lines) and reads more */
+	private void fill() throws IOException {
+		int remaining = lim - pos;
+		if (remaining == buf.length) {
+			byte[] nBuf = new byte[buf.length * 2];
+			System.arraycopy(buf, pos, nBuf, 0, remaining);
+			buf = nBuf;
+		}
+		else if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, remaining);
+		}
+		pos = 0;
+		lim = remaining;
+
+		int n = in.read(buf, lim, buf.length - lim);
+		if (n < 0) {
+			eof = true;
+		}
+		else {
+			lim += n;
+		}
+	}
+
+	private void setLine(int s, int e) {
+		if (e > s && buf[e - 1] == '\r') e--;
+		lineStart = s;
+		lineEnd = e;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+
+	private void tokenize() {
+		nFields = 0;
+		int i = lineStart;
+		//a line starting with whitespace has an empty first field, same as String.split("\\s+")
+		if (i < lineEnd && isSpace(buf[i])) {
+			fieldStart[0] = i;
+			fieldEnd[0] = i;
+			nFields = 1;
+		}
+		while (nFields < fieldStart.length) {
+			while (i < lineEnd && isSpace(buf[i])) i++;
+			if (i >= lineEnd) break;
+			fieldStart[nFields] = i;
+			while (i < lineEnd && !isSpace(buf[i])) i++;
+			fieldEnd[nFields] = i;
+			nFields++;
+		}
+		if (nFields == 1 && fieldStart[0] == fieldEnd[0]) { //whitespace only
+			nFields = 0;
+		}
+	}
+
+	public int fieldCount() {
+		return nFields;
+	}
+
+	/** @return true if the chromosome field starts with "chr" (data line, not a header) */
+	public boolean isChromLine() {
+		return fieldEnd[0] - fieldStart[0] >= 3 && buf[fieldStart[0]] == 'c'
+				&& buf[fieldStart[0] + 1] == 'h' && buf[fieldStart[0] + 2] == 'r';
+	}
+
+	/** @return true if the chromosome field equals the given name */
+	public boolean chromEquals(byte[] chrom) {
+		int len = fieldEnd[0] - fieldStart[0];
+		if (chrom == null || chrom.length != len) return false;
+		for (int i = 0; i < len; i++) {
+			if (buf[fieldStart[0] + i] != chrom[i]) return false;
+		}
+		return true;
+	}
+
+	public byte[] getChromBytes() {
+		byte[] c = new byte[fieldEnd[0] - fieldStart[0]];
+		System.arraycopy(buf, fieldStart[0], c, 0, c.length);
+		return c;
+	}
+
+	public String getChrom() {
+		return new String(buf, fieldStart[0], fieldEnd[0] - fieldStart[0], StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Parses a field as an int, with the same rules as Integer.parseInt
+	 * @throws NumberFormatException - if the field is not an int
+	 * @throws IndexOutOfBoundsException - if the line does not have the field
+	 */
+	public int getInt(int field) {
+		if (field >= nFields) {
+			throw new IndexOutOfBoundsException("Missing field " + field);
+		}
+		int i = fieldStart[field];
+		int e = fieldEnd[field];
+		boolean neg = false;
+		if (buf[i] == '-' || buf[i] == '+') {
+			neg = buf[i] == '-';
+			i++;
+			if (i == e) throw numberFormat(field);
+		}
+		long v = 0;
+		for (; i < e; i++) {
+			int d = buf[i] - '0';
+			if (d < 0 || d > 9) throw numberFormat(field);
+			v = v * 10 + d;
+			if (v > (long) Integer.MAX_VALUE + 1) throw numberFormat(field);
+		}
+		if (neg) v = -v;
+		if (v > Integer.MAX_VALUE) throw numberFormat(field);
+		return (int) v;
+	}
+
+	/**
+	 * Parses a field as a double, with the same result as Double.parseDouble
+	 * Plain decimals with few enough digits are decoded exactly in place; anything else
+	 * (exponents, long mantissas) falls back to Double.parseDouble
+	 * @throws NumberFormatException - if the field is not a number
+	 * @throws IndexOutOfBoundsException - if the line does not have the field
+	 */
+	public double getDouble(int field) {
+		if (field >= nFields) {
+			throw new IndexOutOfBoundsException("Missing field " + field);
+		}
+		int i = fieldStart[field];
+		int e = fieldEnd[field];
+		boolean neg = false;
+		if (i < e && (buf[i] == '-' || buf[i] == '+')) {
+			neg = buf[i] == '-';
+			i++;
+		}
+		long mant = 0;
+		int digits = 0;
+		int fracDigits = 0;
+		boolean point = false;
+		boolean anyDigit = false;
+		for (; i < e; i++) {
+			byte b = buf[i];
+			if (b == '.' && !point) {
+				point = true;
+				continue;
+			}
+			int d = b - '0';
+			if (d < 0 || d > 9 || digits >= 15) {
+				return Double.parseDouble(fieldString(field));
+			}
+			mant = mant * 10 + d;
+			anyDigit = true;
+			if (mant > 0) digits++;
+			if (point) fracDigits++;
+		}
+		if (!anyDigit || fracDigits > 22) {
+			return Double.parseDouble(fieldString(field));
+		}
+		//mant < 10^15 and 10^fracDigits are both exact doubles, so one division is correctly rounded
+		double v = fracDigits == 0 ? mant : mant / POW10[fracDigits];
+		return neg ? -v : v;
+	}
+
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private NumberFormatException numberFormat(int field) {
+		return new NumberFormatException("For input string: \"" + fieldString(field) + "\"");
+	}
+
+	public String fieldString(int field) {
+		return new String(buf, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.US_ASCII);
+	}
+
+	/** @return the current line, for error messages */
+	public String lineString() {
+		return new String(buf, lineStart, lineEnd - lineStart, StandardCharsets.US_ASCII);
+	}
+
+	/** @return length of the current line, excluding its terminator */
+	public int lineLength() {
+		return lineEnd - lineStart;
+	}
+
+	/** Copies the current line (without terminator) to dst at off */
+	public void copyLine(byte[] dst, int off) {
+		System.arraycopy(buf, lineStart, dst, off, lineEnd - lineStart);
+	}
+
+	/** Writes the current line (with a '\n' terminator) without decoding it */
+	public void writeLine(OutputStream out) throws IOException {
+		out.write(buf, lineStart, lineEnd - lineStart);
+		out.write('\n');
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,337 @@
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sorts a bed file by chromosome (byte order, as LC_ALL=C sort), start and end, keeping lines that are equal
+ * in that order as they were, for input that is not sorted
+ * The input is read once into runs that fit a memory budget; each run is sorted on the shared pool while the
+ * next is read, and written to a compressed temporary file next to the output. The runs are then merged in
+ * one pass into the sorted file. Input that fits in one run is written straight out.
+ * Lines that are not intervals (headers, etc) are written first, in input order.
+ */
+class BedSorter {
+
+	/** bytes of memory per line besides its text (offset, length, chromosome, start, end, and two for sorting) */
+	private static final int LINE_OVERHEAD = 28;
+	/** smallest run, so a tiny budget does not make a file per few lines */
+	private static final long MIN_RUN_BYTES = 1 << 20;
+	private static final int SPILL_BUFFER_SIZE = 1 << 16;
+
+	/** Lines read into memory, up to a size, to be sorted together */
+	private static class Run {
+		byte[] text;
+		int textSize;
+		int[] offsets = new int[1024];
+		int[] lengths = new int[1024];
+		int[] chroms = new int[1024];
+		int[] starts = new int[1024];
+		int[] ends = new int[1024];
+		int size;
+		/** chromosome names of the run, indexed by chroms */
+		ArrayList<byte[]> chromNames = new ArrayList<byte[]>();
+		HashMap<String, Integer> chromIds = new HashMap<String, Integer>();
+
+		Run(int textCapacity) {
+			text = new byte[textCapacity];
+		}
+
+		long memory() {
+			return textSize + (long) size * LINE_OVERHEAD;
+		}
+
+		/** Adds the reader's line, false if its text does not fit */
+		boolean add(BedReader br, int start, int end) {
+			int len = br.lineLength();
+			if (textSize + len > text.length) return false;
+			if (size == offsets.length) {
+				int n = size * 2;
+				offsets = Arrays.copyOf(offsets, n);
+				lengths = Arrays.copyOf(lengths, n);
+				chroms = Arrays.copyOf(chroms, n);
+				starts = Arrays.copyOf(starts, n);
+				ends = Arrays.copyOf(ends, n);
+			}
+			br.copyLine(text, textSize);
+			offsets[size] = textSize;
+			lengths[size] = len;
+			chroms[size] = chromId(br);
+			starts[size] = start;
+			ends[size] = end;
+			textSize += len;
+			size++;
+			return true;
+		}
+
+		private int chromId(BedReader br) {
+			int last = size - 1;
+			if (last >= 0 && br.chromEquals(chromNames.get(chroms[last]))) return chroms[last];
+			String name = br.getChrom();
+			Integer id = chromIds.get(name);
+			if (id == null) {
+				id = chromNames.size();
+				chromIds.put(name, id);
+				chromNames.add(br.getChromBytes());
+			}
+			return id;
+		}
+
+		/** @return the order of the lines, sorted */
+		int[] sort() {
+			//rank of each chromosome name, so lines compare by ints
+			Integer[] byName = new Integer[chromNames.size()];
+			for (int i = 0; i < byName.length; i++) {
+				byName[i] = i;
+			}
+			Arrays.sort(byName, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return compareChroms(chromNames.get(a), chromNames.get(b));
+				}
+			});
+			int[] rank = new int[byName.length];
+			for (int r = 0; r < byName.length; r++) {
+				rank[byName[r]] = r;
+			}
+
+			//bottom-up merge sort of the line indexes, stable
+			int[] order = new int[size];
+			int[] tmp = new int[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			for (int width = 1; width < size; width *= 2) {
+				for (int lo = 0; lo < size; lo += 2 * width) {
+					int mid = Math.min(lo + width, size);
+					int hi = Math.min(lo + 2 * width, size);
+					int i = lo, j = mid, k = lo;
+					while (i < mid && j < hi) {
+						tmp[k++] = compareLines(rank, order[j], order[i]) < 0 ? order[j++] : order[i++];
+					}
+					while (i < mid) tmp[k++] = order[i++];
+					while (j < hi) tmp[k++] = order[j++];
+				}
+				int[] t = order;
+				order = tmp;
+				tmp = t;
+			}
+			return order;
+		}
+
+		private int compareLines(int[] rank, int a, int b) {
+			if (chroms[a] != chroms[b]) return Integer.compare(rank[chroms[a]], rank[chroms[b]]);
+			if (starts[a] != starts[b]) return Integer.compare(starts[a], starts[b]);
+			return Integer.compare(ends[a], ends[b]);
+		}
+
+		/** Writes the lines in the given order, each with a '\n' terminator */
+		void write(int[] order, OutputStream out) throws IOException {
+			for (int i : order) {
+				out.write(text, offsets[i], lengths[i]);
+				out.write('\n');
+			}
+		}
+	}
+
+	/** Sorts a run and writes it to its temporary file */
+	private static class SpillTask implements Callable<File> {
+		private final Run run;
+		private final File spillFile;
+
+		SpillTask(Run r, File f) {
+			run = r;
+			spillFile = f;
+		}
+
+		@Override
+		public File call() throws IOException {
+			int[] order = run.sort();
+			OutputStream out = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(spillFile), SPILL_BUFFER_SIZE) {
+				{
+					def.setLevel(Deflater.BEST_SPEED); //spills are read back once, speed over size
+				}
+			}, SPILL_BUFFER_SIZE);
+			try {
+				run.write(order, out);
+			} finally {
+				out.close();
+			}
+			return spillFile;
+		}
+	}
+
+	/** A sorted run read back from its temporary file, one line at a time */
+	private static class RunReader {
+		final BedReader br;
+		/** position of the run in the input, to keep equal lines in input order */
+		final int index;
+		byte[] chrom;
+		int start;
+		int end;
+
+		RunReader(File f, int i) throws IOException {
+			br = new BedReader(new GZIPInputStream(new FileInputStream(f), SPILL_BUFFER_SIZE), SPILL_BUFFER_SIZE, 3);
+			index = i;
+		}
+
+		/** Moves to the next line, false at the end of the run */
+		boolean next() throws IOException {
+			if (!br.next()) return false;
+			chrom = br.getChromBytes();
+			start = br.getInt(1);
+			end = br.getInt(2);
+			return true;
+		}
+	}
+
+	/** Orders run readers by their current line, then by run */
+	private static class LineOrder implements Comparator<RunReader> {
+		@Override
+		public int compare(RunReader a, RunReader b) {
+			int c = compareChroms(a.chrom, b.chrom);
+			if (c != 0) return c;
+			if (a.start != b.start) return Integer.compare(a.start, b.start);
+			if (a.end != b.end) return Integer.compare(a.end, b.end);
+			return Integer.compare(a.index, b.index);
+		}
+	}
+
+	/** @return comparison of two chromosome names byte by byte (unsigned) */
+	static int compareChroms(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0) return c;
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Sorts the input into the output file, written under a temporary name and renamed once complete
+	 * @param memBytes - memory for the lines held at once (the run being read, and those being sorted)
+	 * @throws IOException - if a file cannot be read or written
+	 */
+	public static void sort(File in, File out, long memBytes) throws IOException {
+		//the run being read and one being sorted per thread share the budget
+		int nThreads = TaskScheduler.getThreads();
+		long runBytes = Math.max(MIN_RUN_BYTES, memBytes / (nThreads + 1));
+		int textCapacity = (int) Math.min(Integer.MAX_VALUE - 8, runBytes);
+
+		File tmpOut = new File(out.getPath() + ".tmp");
+		tmpOut.deleteOnExit(); //in case the sort stops the program
+		ArrayList<byte[]> headers = new ArrayList<byte[]>();
+		ArrayList<File> spillFiles = new ArrayList<File>();
+		ArrayList<CompletableFuture<File>> futures = new ArrayList<CompletableFuture<File>>();
+
+		BedReader br = new BedReader(new FileInputStream(in));
+		Run run = new Run(textCapacity);
+		try {
+			while (br.next()) {
+				int start, end;
+				try {
+					if (!br.isChromLine() || br.fieldCount() < 3) throw new NumberFormatException();
+					start = br.getInt(1);
+					end = br.getInt(2);
+				} catch (NumberFormatException e) { //not an interval
+					byte[] line = new byte[br.lineLength()];
+					br.copyLine(line, 0);
+					headers.add(line);
+					continue;
+				}
+				if (run.memory() + br.lineLength() + LINE_OVERHEAD > runBytes || !run.add(br, start, end)) {
+					spill(run, out, spillFiles, futures, nThreads);
+					run = new Run(Math.max(textCapacity, br.lineLength()));
+					run.add(br, start, end);
+				}
+			}
+		} finally {
+			br.close();
+		}
+
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpOut), SPILL_BUFFER_SIZE);
+		try {
+			for (byte[] line : headers) {
+				os.write(line);
+				os.write('\n');
+			}
+			if (spillFiles.isEmpty()) { //one run, no need for temporary files
+				run.write(run.sort(), os);
+			}
+			else {
+				spill(run, out, spillFiles, futures, 0);
+				run = null; //not needed for the merge
+				merge(spillFiles, os);
+			}
+		} finally {
+			os.close();
+			for (File f : spillFiles) {
+				f.delete();
+			}
+		}
+
+		out.delete();
+		if (!tmpOut.renameTo(out)) {
+			throw new IOException("Could not rename " + tmpOut.getPath() + " to " + out.getPath());
+		}
+	}
+
+	/**
+	 * Submits the run to be sorted and written to its temporary file, once fewer than maxPending runs are
+	 * being sorted (waiting for all of them if maxPending is 0)
+	 */
+	private static void spill(Run run, File out, ArrayList<File> spillFiles, ArrayList<CompletableFuture<File>> futures,
+			int maxPending) throws IOException {
+		File spillFile = new File(out.getPath() + ".run" + spillFiles.size() + ".gz");
+		spillFile.deleteOnExit(); //in case the sort stops the program
+		spillFiles.add(spillFile);
+		futures.add(TaskScheduler.submit(new SpillTask(run, spillFile)));
+
+		try {
+			for (int i = 0; i < futures.size() - maxPending; i++) {
+				futures.get(i).get();
+			}
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/** Merges the sorted runs into the output */
+	private static void merge(ArrayList<File> spillFiles, OutputStream out) throws IOException {
+		PriorityQueue<RunReader> heap = new PriorityQueue<RunReader>(spillFiles.size(), new LineOrder());
+		ArrayList<RunReader> readers = new ArrayList<RunReader>();
+		try {
+			for (int i = 0; i < spillFiles.size(); i++) {
+				RunReader rr = new RunReader(spillFiles.get(i), i);
+				readers.add(rr);
+				if (rr.next()) heap.add(rr);
+			}
+			while (!heap.isEmpty()) {
+				RunReader rr = heap.poll();
+				rr.br.writeLine(out);
+				if (rr.next()) heap.add(rr);
+			}
+		} finally {
+			for (RunReader rr : readers) {
+				rr.br.close();
+			}
+		}
+	}
+}
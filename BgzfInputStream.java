@@ -0,0 +1,149 @@
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads BGZF (the blocked gzip of BAM files) a block at a time with an Inflater
+ * Opened on a file it can seek to a virtual offset (the block's file offset << 16 | the offset in the block),
+ * as given by a BAM index; opened on a stream it reads from start to end.
+ */
+class BgzfInputStream extends InputStream {
+
+	/** largest block, compressed or not */
+	private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+	/** file being read (for seeking), null for a stream */
+	private FileInputStream file;
+	private InputStream in;
+	private Inflater inflater = new Inflater(true);
+	private byte[] header = new byte[18];
+	private byte[] cdata = new byte[MAX_BLOCK_SIZE];
+	private byte[] block = new byte[MAX_BLOCK_SIZE];
+	/** next byte of the block to read, and its size */
+	private int pos;
+	private int size;
+	private boolean eof;
+
+	public BgzfInputStream(InputStream is) {
+		in = is;
+	}
+
+	public BgzfInputStream(File f) throws IOException {
+		file = new FileInputStream(f);
+		in = new BufferedInputStream(file, MAX_BLOCK_SIZE);
+	}
+
+	/** Moves to a virtual offset (only when opened on a file) */
+	public void seek(long virtualOffset) throws IOException {
+		file.getChannel().position(virtualOffset >>> 16);
+		in = new BufferedInputStream(file, MAX_BLOCK_SIZE);
+		eof = false;
+		pos = 0;
+		size = 0;
+		if (!readBlock()) return;
+		pos = (int) (virtualOffset & 0xffff);
+		if (pos > size) {
+			throw new IOException("Offset past the end of its BGZF block: " + virtualOffset);
+		}
+	}
+
+	/** @return true if the bytes start like gzip (a BAM file, rather than SAM text) */
+	public static boolean isGzip(byte[] b, int n) {
+		return n >= 2 && (b[0] & 0xff) == 0x1f && (b[1] & 0xff) == 0x8b;
+	}
+
+	/**
+	 * Reads the next block that is not empty
+	 * @return false at the end of the input
+	 */
+	private boolean readBlock() throws IOException {
+		while (!eof) {
+			int n = readUpTo(header, 0, header.length);
+			if (n == 0) {
+				eof = true;
+				return false;
+			}
+			if (n < header.length || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || (header[3] & 4) == 0
+					|| header[12] != 'B' || header[13] != 'C') {
+				throw new IOException("Not a BGZF block (BAM files must be compressed with bgzip)");
+			}
+			int xlen = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+			int bsize = (header[16] & 0xff) | (header[17] & 0xff) << 8; //block size - 1
+			skipFully(xlen - 6); //other extra subfields after BC
+			int clen = bsize - xlen - 19;
+			readFully(cdata, 0, clen + 8);
+			int isize = (cdata[clen + 4] & 0xff) | (cdata[clen + 5] & 0xff) << 8 | (cdata[clen + 6] & 0xff) << 16
+					| (cdata[clen + 7] & 0xff) << 24;
+
+			inflater.reset();
+			inflater.setInput(cdata, 0, clen);
+			try {
+				int done = 0;
+				while (done < isize) {
+					int k = inflater.inflate(block, done, isize - done);
+					if (k == 0 && (inflater.finished() || inflater.needsInput())) break;
+					done += k;
+				}
+				if (done != isize) {
+					throw new IOException("Truncated BGZF block");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt BGZF block: " + e.getMessage());
+			}
+			pos = 0;
+			size = isize;
+			if (size > 0) return true; //empty blocks (the end marker) are skipped
+		}
+		return false;
+	}
+
+	private int readUpTo(byte[] b, int off, int len) throws IOException {
+		int n = 0;
+		while (n < len) {
+			int k = in.read(b, off + n, len - n);
+			if (k < 0) break;
+			n += k;
+		}
+		return n;
+	}
+
+	private void readFully(byte[] b, int off, int len) throws IOException {
+		if (readUpTo(b, off, len) < len) {
+			throw new EOFException("Truncated BGZF block");
+		}
+	}
+
+	private void skipFully(int n) throws IOException {
+		for (int i = 0; i < n; i++) {
+			if (in.read() < 0) throw new EOFException("Truncated BGZF block");
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pos == size && !readBlock()) return -1;
+		return block[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		if (pos == size && !readBlock()) return -1;
+		int n = Math.min(len, size - pos);
+		System.arraycopy(block, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		in.close();
+	}
+}
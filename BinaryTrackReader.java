@@ -0,0 +1,231 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads a binary (.gmtrk) cMBF track, see BinaryTrackWriter
+ * Each segment's values are memory-mapped (small ones are read into memory)
+ * Can also be run to export a binary track as bedGraph
+ */
+class BinaryTrackReader implements TrackReader {
+
+	/** segments smaller than this (in bytes) are read rather than mapped */
+	private static final int MAP_THRESHOLD = 1 << 16;
+
+	private File file;
+	private FileChannel ch;
+	private long size;
+	/** file position of the next segment */
+	private long next;
+
+	/** current segment */
+	private byte[] chrom;
+	private int segStart;
+	private int step;
+	private int count;
+	private FloatBuffer values;
+	/** index of the current interval in the segment */
+	private int i;
+	/** index of the segment's first interval to read */
+	private int first;
+
+	/** if not null, only the intervals of this chromosome that start in [rangeFrom, rangeTo) are read */
+	private byte[] rangeChrom;
+	private int rangeFrom;
+	private int rangeTo;
+
+	public BinaryTrackReader(File f) throws IOException {
+		file = f;
+		ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		size = ch.size();
+
+		ByteBuffer magic = read(0, BinaryTrackWriter.MAGIC.length);
+		if (magic == null || !Arrays.equals(magic.array(), BinaryTrackWriter.MAGIC)) {
+			ch.close();
+			throw new IOException("Not a binary cMBF track: " + f.getPath());
+		}
+		next = BinaryTrackWriter.MAGIC.length;
+		count = 0;
+		i = 0;
+	}
+
+	/** Reads only the intervals of the chromosome that start in [from, to) */
+	public BinaryTrackReader(File f, String chrom, int from, int to) throws IOException {
+		this(f);
+		rangeChrom = chrom.getBytes(StandardCharsets.US_ASCII);
+		rangeFrom = from;
+		rangeTo = to;
+	}
+
+	/**
+	 * Export main method
+	 * @param args - binary track, bedGraph output file
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2 || !args[1].endsWith(".bedGraph")) {
+			System.err.println("Usage: BinaryTrackReader [track" + BinaryTrackWriter.EXTENSION + "] [output.bedGraph]");
+			System.exit(1);
+		}
+		File outFile = new File(args[1]);
+		BinaryTrackReader tr = new BinaryTrackReader(new File(args[0]));
+		BedGraphTrackWriter tw = new BedGraphTrackWriter(outFile, true);
+		while (tr.next()) {
+			tw.add(tr.getChromBytes(), tr.getStart(), tr.getEnd(), tr.getValue());
+		}
+		tr.close();
+		tw.close();
+	}
+
+	/**
+	 * Reads only the segment headers of a track
+	 * @return the spans of the track's chromosomes, in file order
+	 */
+	public static ArrayList<TrackSpan> spans(File f) throws IOException {
+		ArrayList<TrackSpan> spans = new ArrayList<TrackSpan>();
+		BinaryTrackReader tr = new BinaryTrackReader(f);
+		try {
+			String chrom = null;
+			int start = 0;
+			int end = 0;
+			int intervalSize = 0;
+			while (tr.next < tr.size) {
+				tr.readSegmentHeader();
+				long p = tr.next + 16 + tr.chrom.length;
+				tr.next = p + 4L * tr.count;
+				if (tr.next > tr.size) throw tr.corrupt();
+				if (tr.count == 0) continue;
+
+				String c = new String(tr.chrom, StandardCharsets.US_ASCII);
+				if (!c.equals(chrom)) {
+					if (chrom != null) spans.add(new TrackSpan(chrom, start, end, intervalSize, null));
+					chrom = c;
+					start = tr.segStart;
+					intervalSize = tr.step;
+				}
+				end = tr.segStart + tr.count * tr.step;
+			}
+			if (chrom != null) spans.add(new TrackSpan(chrom, start, end, intervalSize, null));
+		} finally {
+			tr.close();
+		}
+		return spans;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		if (i + 1 < count) {
+			i++;
+			return true;
+		}
+		while (next < size) {
+			readSegment();
+			if (count > first) {
+				i = first;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void readSegment() throws IOException {
+		readSegmentHeader();
+
+		long valuesPos = next + 16 + chrom.length;
+		long valuesLength = 4L * count;
+		if (valuesPos + valuesLength > size) throw corrupt();
+		next = valuesPos + valuesLength;
+
+		first = 0;
+		if (rangeChrom != null) {
+			if (!Arrays.equals(chrom, rangeChrom)) {
+				count = 0;
+				return;
+			}
+			//intervals starting in [rangeFrom, rangeTo)
+			first = (int) Math.max(0, -Math.floorDiv(segStart - (long) rangeFrom, step));
+			count = (int) Math.min(count, Math.max(0, -Math.floorDiv(segStart - (long) rangeTo, step)));
+			if (count <= first) return;
+		}
+
+		if (valuesLength < MAP_THRESHOLD) {
+			values = read(valuesPos, (int) valuesLength).asFloatBuffer();
+		}
+		else {
+			values = ch.map(FileChannel.MapMode.READ_ONLY, valuesPos, valuesLength).asFloatBuffer();
+		}
+	}
+
+	/** Reads the header of the segment at next (its values are not read) */
+	private void readSegmentHeader() throws IOException {
+		ByteBuffer len = read(next, 4);
+		if (len == null) throw corrupt();
+		int nameLength = len.getInt();
+		if (nameLength < 0 || nameLength > 1 << 16) throw corrupt();
+
+		ByteBuffer hdr = read(next + 4, nameLength + 12);
+		if (hdr == null) throw corrupt();
+		chrom = new byte[nameLength];
+		hdr.get(chrom);
+		segStart = hdr.getInt();
+		step = hdr.getInt();
+		count = hdr.getInt();
+		if (count < 0 || step <= 0) throw corrupt();
+	}
+
+	/** @return n bytes at position p, or null if the file ends before */
+	private ByteBuffer read(long p, int n) throws IOException {
+		if (p + n > size) return null;
+		ByteBuffer bb = ByteBuffer.allocate(n);
+		while (bb.hasRemaining()) {
+			if (ch.read(bb, p + bb.position()) < 0) return null;
+		}
+		bb.flip();
+		return bb;
+	}
+
+	private IOException corrupt() {
+		return new IOException("Binary cMBF track is corrupt at " + next + ": " + file.getPath());
+	}
+
+	@Override
+	public boolean chromEquals(byte[] c) {
+		return c != null && (c == chrom || Arrays.equals(c, chrom));
+	}
+
+	@Override
+	public byte[] getChromBytes() {
+		return chrom;
+	}
+
+	@Override
+	public int getStart() {
+		return segStart + i * step;
+	}
+
+	@Override
+	public int getEnd() {
+		return segStart + (i + 1) * step;
+	}
+
+	@Override
+	public double getValue() {
+		return BedGraphWriter.roundFixed(values.get(i), 5);
+	}
+
+	@Override
+	public String lineString() {
+		return new String(chrom, StandardCharsets.US_ASCII) + "\t" + getStart() + "\t" + getEnd() + "\t" + values.get(i);
+	}
+
+	@Override
+	public void close() throws IOException {
+		ch.close();
+	}
+}
@@ -0,0 +1,136 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a cMBF track in the binary (.gmtrk) format
+ * The file is the magic "GMIMTRK1" followed by segments, each a run of contiguous intervals of one size:
+ *   int nameLength, chromosome name (ASCII), int start, int step, int count, float[count] cMBF
+ * (big-endian). Values are stored as written to a bedGraph track (5 decimals), so reading them back gives
+ * the same numbers as parsing the bedGraph. A track without the magic is a sequence of segments that can
+ * be appended to another track, as the chunks of a chromosome are.
+ */
+class BinaryTrackWriter implements TrackWriter {
+
+	public static final String EXTENSION = ".gmtrk";
+	static final byte[] MAGIC = "GMIMTRK1".getBytes(StandardCharsets.US_ASCII);
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private FileChannel ch;
+	private ByteBuffer buf;
+	/** file position of the start of buf */
+	private long pos;
+
+	/** current segment, null before the first */
+	private byte[] segChrom;
+	private int segStart;
+	private int segStep;
+	private int segCount;
+	/** file position of the current segment's count */
+	private long countPos;
+
+	/**
+	 * @param header - true to start with the magic (false for the later chunks of a chromosome)
+	 */
+	public BinaryTrackWriter(File f, boolean header) throws IOException {
+		ch = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		buf = ByteBuffer.allocate(BUFFER_SIZE);
+		pos = 0;
+		if (header) {
+			buf.put(MAGIC);
+		}
+	}
+
+	@Override
+	public void add(byte[] chrom, int start, int end, double cMBF) throws IOException {
+		int step = end - start;
+		if (segChrom == null || (chrom != segChrom && !Arrays.equals(chrom, segChrom)) || step != segStep
+				|| start != (long) segStart + (long) segCount * segStep || segCount == Integer.MAX_VALUE) {
+			endSegment();
+			beginSegment(chrom, start, step);
+		}
+		ensure(4);
+		buf.putFloat((float) BedGraphWriter.roundFixed(cMBF, 5));
+		segCount++;
+	}
+
+	private void beginSegment(byte[] chrom, int start, int step) throws IOException {
+		ensure(16 + chrom.length);
+		buf.putInt(chrom.length);
+		buf.put(chrom);
+		buf.putInt(start);
+		buf.putInt(step);
+		countPos = pos + buf.position();
+		buf.putInt(0); //count, set when the segment ends
+		segChrom = chrom;
+		segStart = start;
+		segStep = step;
+		segCount = 0;
+	}
+
+	private void endSegment() throws IOException {
+		if (segChrom == null) return;
+		if (countPos >= pos) { //still buffered
+			buf.putInt((int) (countPos - pos), segCount);
+		}
+		else {
+			ByteBuffer c = ByteBuffer.allocate(4);
+			c.putInt(segCount);
+			c.flip();
+			while (c.hasRemaining()) {
+				ch.write(c, countPos + c.position());
+			}
+		}
+	}
+
+	private void ensure(int n) throws IOException {
+		if (buf.remaining() < n) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			ch.write(buf, pos + buf.position());
+		}
+		pos += buf.limit();
+		buf.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		endSegment();
+		flushBuffer();
+		ch.close();
+	}
+
+	/**
+	 * Concatenates binary tracks (each starting with the magic) into one track
+	 */
+	public static File concatenate(List<File> trackFiles, File outFile) throws IOException {
+		FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			out.write(ByteBuffer.wrap(MAGIC));
+			for (File f : trackFiles) {
+				FileChannel in = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+				long size = in.size();
+				for (long p = MAGIC.length; p < size; ) {
+					p += in.transferTo(p, size - p, out);
+				}
+				in.close();
+			}
+		} finally {
+			out.close();
+		}
+		return outFile;
+	}
+}
@@ -0,0 +1,63 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a byte range of a file without copying it anywhere else first
+ * Ranges that fit in a single mapping (< 2 GB) are memory-mapped, larger ones are read through the FileChannel
+ */
+class ByteRangeInputStream extends InputStream {
+
+	private FileChannel ch;
+	private MappedByteBuffer mapped;
+	/** next file offset to read (FileChannel mode) */
+	private long pos;
+	private long end;
+
+	public ByteRangeInputStream(File f, long start, long e) throws IOException {
+		ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		pos = start;
+		end = e;
+
+		if (end - start <= Integer.MAX_VALUE) {
+			mapped = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = read(b, 0, 1);
+		return n < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+
+		if (mapped != null) {
+			int n = Math.min(len, mapped.remaining());
+			if (n == 0) return -1;
+			mapped.get(b, off, n);
+			return n;
+		}
+
+		if (pos >= end) return -1;
+		int n = (int) Math.min(len, end - pos);
+		n = ch.read(ByteBuffer.wrap(b, off, n), pos);
+		if (n < 0) return -1;
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		mapped = null;
+		ch.close();
+	}
+}
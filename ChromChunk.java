@@ -0,0 +1,64 @@
+
+/**
+ * Part of a chromosome whose cMBFs are computed by one task
+ * The chromosome's intervals must be contiguous and of one size, so every interval's position is known
+ * without reading the ones before it; the task reads half a window around its part (the halo) so its
+ * output is the same as computing the whole chromosome in one pass.
+ */
+class ChromChunk {
+
+	/** chunk number within the chromosome, from 0 */
+	private int _index;
+	/** start of the chromosome's first interval */
+	private int _chromStart;
+	/** start of the chromosome's last interval */
+	private int _chromLastStart;
+	private int _intervalSize;
+	/** start of the first interval output by this chunk */
+	private int _outStart;
+	/** end of the last interval output by this chunk */
+	private int _outEnd;
+
+	public ChromChunk(int i, int cS, int cLS, int iS, int oS, int oE) {
+		_index = i;
+		_chromStart = cS;
+		_chromLastStart = cLS;
+		_intervalSize = iS;
+		_outStart = oS;
+		_outEnd = oE;
+	}
+
+	public int getIndex() {
+		return _index;
+	}
+
+	public int getChromStart() {
+		return _chromStart;
+	}
+
+	public int getChromLastStart() {
+		return _chromLastStart;
+	}
+
+	public int getIntervalSize() {
+		return _intervalSize;
+	}
+
+	public int getOutStart() {
+		return _outStart;
+	}
+
+	public int getOutEnd() {
+		return _outEnd;
+	}
+
+	/** number of intervals in the whole chromosome */
+	public long getChromLines() {
+		return ((long) _chromLastStart - _chromStart) / _intervalSize + 1;
+	}
+
+	@Override
+	public String toString() {
+		return "[chunk:" + _index + ", outStart:" + _outStart + ", outEnd:" + _outEnd + "]";
+	}
+}
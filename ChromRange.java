@@ -0,0 +1,69 @@
+
+/**
+ * Byte range of one chromosome's lines in a sorted input file
+ */
+class ChromRange {
+
+	private String _chromNum;
+	/** offset of the chromosome's first line */
+	private long _start;
+	/** offset just past the chromosome's last line */
+	private long _end;
+	/** number of data lines, -1 until the chromosome has been read */
+	private long _lines;
+	/** width of the chromosome's bins, 0 until the chromosome has been read */
+	private int _intervalSize;
+
+	public ChromRange(String cN, long s, long e) {
+		this(cN, s, e, -1, 0);
+	}
+
+	public ChromRange(String cN, long s, long e, long l, int iS) {
+		_chromNum = cN;
+		_start = s;
+		_end = e;
+		_lines = l;
+		_intervalSize = iS;
+	}
+
+	public String getChromNum() {
+		return _chromNum;
+	}
+
+	public long getStart() {
+		return _start;
+	}
+
+	public long getEnd() {
+		return _end;
+	}
+
+	public void setEnd(long e) {
+		_end = e;
+	}
+
+	public long getLength() {
+		return _end - _start;
+	}
+
+	public long getLines() {
+		return _lines;
+	}
+
+	public void setLines(long l) {
+		_lines = l;
+	}
+
+	public int getIntervalSize() {
+		return _intervalSize;
+	}
+
+	public void setIntervalSize(int iS) {
+		_intervalSize = iS;
+	}
+
+	@Override
+	public String toString() {
+		return "[chrom:" + _chromNum + ", start:" + _start + ", end:" + _end + ", lines:" + _lines + ", intervalSize:" + _intervalSize + "]";
+	}
+}
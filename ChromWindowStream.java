@@ -0,0 +1,376 @@
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Moves a sample's window along one chromosome (or one chunk of it), one output interval at a time
+ * Each call to next() takes as much input as the window needs and gives the next interval's cMBF,
+ * so several samples can be advanced in lockstep as well as written out one at a time
+ * The input is parsed a block of lines at a time; with more than one thread the next block is read ahead
+ * on the shared pool, so reading and parsing overlap with the window's computation
+ * Input read in one pass (standard input, a pipe) is shared by the streams of its chromosomes in turn
+ * A count matrix (one column per sample) has a window per sample, all moved together over the same lines,
+ * which are parsed once; the first sample's window stands for all of them where only the intervals matter
+ */
+class ChromWindowStream implements Closeable {
+
+	private RunConfig config;
+	private ChromRange chromRange;
+	/** part of the chromosome to compute, null for the whole chromosome */
+	private ChromChunk chunk;
+	/** reader of the chromosome's range, null if the input is shared with the other chromosomes */
+	private TrackReader reader;
+	private TrackBlockReader blocks;
+	/** time the shared input had waited for blocks read ahead before this chromosome */
+	private long waitNanosBefore;
+	/** line of the current block being used */
+	private int pos;
+	/** window of each column of counts, and the first of them */
+	private IntWindow_WGSep[] windows;
+	private IntWindow_WGSep window;
+
+	/** chromosome name as written to the output */
+	private byte[] chromBytes;
+	private int intervalSize;
+	/** start of the next interval to output */
+	private int index;
+	/** start of the last interval to output, known once the end of the chromosome is reached */
+	private int lastIndex;
+	private boolean hasNextLine;
+	private boolean endReached;
+	private boolean done;
+	/** start of the next interval expected in a chunk */
+	private int nextStart;
+
+	/** Number of input lines parsed at a time */
+	static final int BLOCK_SIZE = 4096;
+
+	/** interval of the last line taken */
+	private int lineStart;
+	private int lineEnd;
+	private double[] lineReadCounts;
+
+	/** current output interval */
+	private int start;
+	private int end;
+	private double[] cMBFs;
+
+	/** Stream over the whole chromosome */
+	public ChromWindowStream(RunConfig rC, ChromRange cR) throws IOException {
+		config = rC;
+		chromRange = cR;
+		initColumns();
+		openInput(chromRange.getStart());
+		chromBytes = chromRange.getChromNum().getBytes(StandardCharsets.US_ASCII);
+		startChrom();
+	}
+
+	/** Stream over the chromosome whose first block the shared input has just read */
+	private ChromWindowStream(RunConfig rC, TrackBlockReader in) throws IOException {
+		config = rC;
+		initColumns();
+		blocks = in;
+		waitNanosBefore = blocks.getWaitNanos();
+		pos = -1; //the first line is in the block already read
+		chromBytes = blocks.getChromBytes();
+		chromRange = new ChromRange(new String(chromBytes, StandardCharsets.US_ASCII), -1, -1);
+		startChrom();
+	}
+
+	/**
+	 * Opens input to be read in one pass (standard input, a pipe), for the streams of its chromosomes in turn
+	 */
+	public static TrackBlockReader openShared(RunConfig rC, InputStream is) throws IOException {
+		return new TrackBlockReader(newReader(rC, is), BLOCK_SIZE, TaskScheduler.getThreads() > 1);
+	}
+
+	/**
+	 * @return stream over the next chromosome of the shared input, null at the end of the input
+	 * (the previous chromosome's stream must have been read to its end)
+	 */
+	public static ChromWindowStream nextShared(RunConfig rC, TrackBlockReader in) throws IOException {
+		if (in.readBlock() == 0) return null;
+		return new ChromWindowStream(rC, in);
+	}
+
+	private static TrackReader newReader(RunConfig rC, InputStream is) throws IOException {
+		if (rC.isAlignmentInput()) {
+			return new AlignmentReader(is, rC.getAlignBinSize(), rC.isAlignCoverage(), rC.getMinRC());
+		}
+		if (rC.getMatrixColumns() > 0) {
+			return new ReadCountReader(is, rC.getMinRC(), rC.getMatrixColumns());
+		}
+		int depthBinSize = rC.getDepthBinSize();
+		return new ReadCountReader(is, rC.getMinRC(), depthBinSize > 0 ? depthBinSize : rC.getRunBinSize(), depthBinSize > 0);
+	}
+
+	/** Reads the chromosome's first line and starts its window */
+	private void startChrom() throws IOException {
+		if (!nextDataLine()) {
+			done = true;
+			chromRange.setIntervalSize(0);
+			chromRange.setLines(0);
+			return;
+		}
+
+		parseLine();
+
+		index = lineStart;
+		intervalSize = lineEnd - lineStart;
+		int windowbpSize = config.getWindowbpSize();
+		chromRange.setIntervalSize(intervalSize);
+		chromBytes = blocks.getChromBytes();
+		String chromNum = new String(chromBytes, StandardCharsets.US_ASCII);
+
+		if (windowbpSize % intervalSize != 0) {
+			blocks.close();
+			System.err.println("Window size must be a multiple of the interval size");
+			System.exit(1);
+		}
+
+		for (int k = 0; k < windows.length; k++) {
+			windows[k] = new IntWindow_WGSep(chromNum, windowbpSize, intervalSize, config.getMedianMult(), index);
+		}
+		window = windows[0];
+		insertLine();
+		hasNextLine = nextDataLine();
+	}
+
+	/** Stream over one chunk of the chromosome, reading its window from the middle of the range */
+	public ChromWindowStream(RunConfig rC, ChromRange cR, ChromChunk cC) throws IOException {
+		config = rC;
+		chromRange = cR;
+		chunk = cC;
+		initColumns();
+		File inFile = config.getInFile();
+		String chromNum = chromRange.getChromNum();
+		chromBytes = chromNum.getBytes(StandardCharsets.US_ASCII);
+		intervalSize = chunk.getIntervalSize();
+
+		for (int k = 0; k < windows.length; k++) {
+			windows[k] = new IntWindow_WGSep(chromNum, config.getWindowbpSize(), intervalSize, config.getMedianMult(),
+					chunk.getChromStart(), chunk.getChromLastStart(), chunk.getOutStart());
+		}
+		window = windows[0];
+		index = chunk.getOutStart();
+
+		//start reading at the window's first interval
+		nextStart = window.getWindowStart();
+		BedChromIndex idx = BedChromIndex.open(inFile);
+		long offset = idx.offsetOfBin(chromRange, nextStart);
+		idx.close();
+
+		openInput(offset);
+	}
+
+	/** Opens the input from the given offset to the end of the chromosome's range */
+	private void openInput(long offset) throws IOException {
+		if (config.isAlignmentInput()) { //a reference of an indexed BAM, from the virtual offset of its first read
+			reader = AlignmentReader.openChrom(config.getInFile(), chromRange, config.getAlignBinSize(), config.isAlignCoverage(),
+					config.getMinRC());
+		}
+		else {
+			reader = newReader(config, new ByteRangeInputStream(config.getInFile(), offset, chromRange.getEnd()));
+		}
+		blocks = new TrackBlockReader(reader, BLOCK_SIZE, TaskScheduler.getThreads() > 1);
+	}
+
+	public byte[] getChromBytes() {
+		return chromBytes;
+	}
+
+	public ChromRange getChromRange() {
+		return chromRange;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public double getcMBF() {
+		return cMBFs[0];
+	}
+
+	/** @return cMBF of the given column of a count matrix */
+	public double getcMBF(int column) {
+		return cMBFs[column];
+	}
+
+	/** @return number of columns of counts (samples of a count matrix, otherwise 1) */
+	public int getColumns() {
+		return windows.length;
+	}
+
+	private void initColumns() {
+		int n = Math.max(1, config.getMatrixColumns());
+		windows = new IntWindow_WGSep[n];
+		lineReadCounts = new double[n];
+		cMBFs = new double[n];
+	}
+
+	/**
+	 * Moves to the next output interval
+	 * @return false once every interval of the chromosome (or chunk) has been given
+	 * @throws IllegalStateException - if a chunk's intervals turn out not to be contiguous
+	 */
+	public boolean next() throws IOException {
+		if (done) return false;
+		return chunk == null ? nextChrom() : nextChunk();
+	}
+
+	private boolean nextChrom() throws IOException {
+		//parse through file for position index and its read count
+		while (hasNextLine) {
+			if (window.toFill() > 0) {
+				parseLine();
+				insertLine();
+				hasNextLine = nextDataLine();
+			}
+
+			if (window.full()) { //filled window, calculate stats for current position and increment (middle indices)
+				setIndexStats();
+
+				if (!hasNextLine) {
+					setEndOfChrom();
+				}
+
+				incrCenter();
+				index += intervalSize;
+				return true;
+			}
+		}
+
+		if (!endReached) { //reached end of file, finish computing for last indices
+			endReached = true;
+			setEndOfChrom();
+
+			if (!window.full()) { //reached end of file, but window not filled
+				for (IntWindow_WGSep w : windows) {
+					w.setSmallerWindowSize();
+				}
+			}
+
+			lastIndex = window.getLastStartIndex();
+		}
+
+		if (index <= lastIndex) {
+			setIndexStats();
+			incrCenter();
+			index += intervalSize;
+			return true;
+		}
+
+		done = true;
+		if (reader instanceof ReadCountReader) {
+			chromRange.setLines(((ReadCountReader) reader).getLineCount());
+		}
+		return false;
+	}
+
+	private boolean nextChunk() throws IOException {
+		if (index >= chunk.getOutEnd()) {
+			done = true;
+			return false;
+		}
+
+		while (window.toFill() > 0) {
+			if (!nextDataLine()) {
+				throw new IllegalStateException("Chromosome ended before " + chromRange.getChromNum() + "\t" + nextStart);
+			}
+			parseLine();
+			if (lineStart != nextStart || lineEnd - lineStart != intervalSize) {
+				throw new IllegalStateException("Intervals are not contiguous: " + blocks.intervalString(pos));
+			}
+			insertLine();
+			nextStart = lineEnd;
+		}
+
+		setIndexStats();
+		incrCenter();
+		index += intervalSize;
+		return true;
+	}
+
+	private void setIndexStats() {
+		try {
+			start = window.getIndexStart();
+			end = window.getIndexEnd();
+			for (int k = 0; k < windows.length; k++) {
+				cMBFs[k] = windows[k].calccMBF();
+			}
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Moves to the next line of the chromosome (header lines in its range are skipped by the reader)
+	 * A block is all of one chromosome, so a block of another chromosome inside the range means the chromosome
+	 * is in more than one block of the input, which the range search cannot tell (unsorted input)
+	 */
+	private boolean nextDataLine() throws IOException {
+		pos++;
+		if (pos < blocks.size()) return true;
+		pos = 0;
+		if (blocks.readBlock() == 0) return false;
+		if (!Arrays.equals(blocks.getChromBytes(), chromBytes)) {
+			if (reader == null) {
+				blocks.unreadBlock(); //the next chromosome's first block
+				return false;
+			}
+			System.err.println("Input is not sorted: " + new String(blocks.getChromBytes(), StandardCharsets.US_ASCII)
+					+ " lines found among " + chromRange.getChromNum() + "'s, sort it first (-so)");
+			System.exit(1);
+		}
+		return true;
+	}
+
+	private void insertLine() {
+		for (int k = 0; k < windows.length; k++) {
+			windows[k].insert(lineStart, lineEnd, lineReadCounts[k]);
+		}
+	}
+
+	private void incrCenter() {
+		for (IntWindow_WGSep w : windows) {
+			w.incrCenter();
+		}
+	}
+
+	private void setEndOfChrom() {
+		for (IntWindow_WGSep w : windows) {
+			w.setEndOfChrom();
+		}
+	}
+
+	/** Takes the current line into lineStart/lineEnd/lineReadCounts */
+	private void parseLine() {
+		lineStart = blocks.getStarts()[pos];
+		lineEnd = blocks.getEnds()[pos];
+		for (int k = 0; k < lineReadCounts.length; k++) {
+			lineReadCounts[k] = blocks.getValues(k)[pos];
+		}
+	}
+
+	/** @return time spent waiting for input read ahead */
+	public long getReadWaitNanos() {
+		return blocks.getWaitNanos() - waitNanosBefore;
+	}
+
+	/** Closes the chromosome's input (shared input is closed by whoever opened it) */
+	@Override
+	public void close() throws IOException {
+		if (reader != null) {
+			blocks.close();
+		}
+	}
+}
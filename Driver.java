@@ -1,15 +1,20 @@
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -20,29 +25,20 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 public class Driver implements Callable<ArrayList<File>> {
-	/** Window size for calculating cMBF (in bp) */
-	protected static Integer windowbpSize;
-	/** Read resolution / width of bin */
-	protected static int intervalSize;
-	/** Median multiple */
-	protected static double medianMult;
-	/** Minimum read count (in place of zero) */
-	protected static double minRC;
-
-	protected static ArrayList<File> outFiles;
-
-	private static String inBed;
-	public static String dirName;
-	private static String outBaseName;
-	private static String spacer;
-
-	/** Constructor, called from GMIM
-	 * @throws Exception */
-	public Driver(String inFN, String outBN) throws Exception {		
-		inBed = inFN;
-		outBaseName = outBN;
-
-		ProcessChromFile.setOutBaseName(outBaseName);
+	public static final int DEFAULT_CHUNK_BINS = 1 << 20;
+
+	/** parameters of this run */
+	private final RunConfig config;
+	/** true if the chromosome ranges came from the input's sidecar index */
+	private boolean chromIndexLoaded;
+	private ArrayList<ChromRange> chromRanges;
+	/** tasks in the order submitted, and when */
+	private ArrayList<ProcessChromFile> order;
+	private long submitNanos;
+
+	/** Constructor, called from GMIM */
+	public Driver(RunConfig rC) {
+		config = rC;
 	}
 
 	/**
@@ -53,27 +49,27 @@ public class Driver implements Callable<ArrayList<File>> {
 	 */
 	public static void main(String[] args) throws Exception{
 
-		parseOptions(args);
+		RunConfig config = parseOptions(args);
 
 		//parallel process chromosomes 
-		process();
+		new Driver(config).process();
 	}
 
 	@Override
 	public ArrayList<File> call() throws Exception {
 		ArrayList<File> ra = process();
-		System.out.println(inBed + " cMBF calculations completed");
+		System.out.println(config.getInBed() + " cMBF calculations completed");
 		return ra;
 	}
 
-	//	public ArrayList<File> getOutFiles() {
-	//		return outFiles;
-	//	}
+	public RunConfig getConfig() {
+		return config;
+	}
 
-	public static void parseOptions(String[] args) {
+	public static RunConfig parseOptions(String[] args) {
 		Options options = new Options();
 
-		Option infile = new Option("i", "input", true, "[req] input file path, must be a bed file");
+		Option infile = new Option("i", "input", true, "[req] input file path, must be a bed file (any name with -d or -a), - or a pipe to read it in one pass");
 		infile.setRequired(true);
 		options.addOption(infile);
 
@@ -93,6 +89,39 @@ public class Driver implements Callable<ArrayList<File>> {
 		defZero.setRequired(false);
 		options.addOption(defZero);
 
+		Option chunkSize = new Option("c", "chunkSize", true, "[opt] number of intervals per parallel chunk of a chromosome");
+		chunkSize.setRequired(false);
+		options.addOption(chunkSize);
+
+		Option threads = new Option("t", "threads", true, "[opt] number of threads, default: number of processors");
+		threads.setRequired(false);
+		options.addOption(threads);
+
+		Option binary = new Option("b", "binary", false, "[opt] write the cMBF tracks in the binary " + BinaryTrackWriter.EXTENSION + " format instead of bedGraph");
+		binary.setRequired(false);
+		options.addOption(binary);
+
+		Option genomecov = new Option("g", "genomecov", true, "[opt] input is run-length intervals (bedtools genomecov -bg), read as bins of the given size (bp)");
+		genomecov.setRequired(false);
+		options.addOption(genomecov);
+
+		Option depth = new Option("d", "depth", true, "[opt] input is per-base depth (samtools depth), summed into bins of the given size (bp)");
+		depth.setRequired(false);
+		options.addOption(depth);
+
+		Option align = new Option("a", "alignments", true, "[opt] input is coordinate-sorted alignments (BAM, SAM), reads counted in bins of the given size (bp)");
+		align.setRequired(false);
+		options.addOption(align);
+
+		Option alignCov = new Option("cov", "coverage", false, "[opt] with --alignments, count aligned bases per bin instead of reads");
+		alignCov.setRequired(false);
+		options.addOption(alignCov);
+
+		Option sort = new Option("so", "sort", true, "[opt] sort unsorted bed input first, into [input without .bed].sorted.bed (reused while newer than the input, otherwise overwritten), using at most the given memory (MB), default: half the heap");
+		sort.setOptionalArg(true);
+		sort.setRequired(false);
+		options.addOption(sort);
+
 		Option help = new Option("h", "help", false, "");
 		options.addOption(help);
 
@@ -117,18 +146,35 @@ public class Driver implements Callable<ArrayList<File>> {
 		}
 
 		//default options
-		outBaseName = "out";
-		windowbpSize = 10000;
-		medianMult = 1;
-		minRC = 0.5;
+		String outBaseName = "out";
+		int windowbpSize = 10000;
+		double medianMult = 1;
+		double minRC = 0.5;
+		int chunkBins = DEFAULT_CHUNK_BINS;
+		int runBinSize = 0;
+		int depthBinSize = 0;
+		int alignBinSize = 0;
 
 		//file options
-		inBed = cmd.getOptionValue("i");
+		String inBed = cmd.getOptionValue("i");
 		if (cmd.hasOption("o")) {
 			outBaseName = cmd.getOptionValue("o");
 		}
-		if (!inBed.endsWith(".bed")) {
-			throw new IllegalArgumentException("Incorrect filetypes");
+		if (cmd.hasOption("d")) {
+			int bs = Integer.parseInt(cmd.getOptionValue("d"));
+			if (bs <= 0) {
+				System.err.println("Bin size must be positive.");
+				System.exit(0);
+			}
+			depthBinSize = bs;
+		}
+		if (cmd.hasOption("a")) {
+			int bs = Integer.parseInt(cmd.getOptionValue("a"));
+			if (bs <= 0) {
+				System.err.println("Bin size must be positive.");
+				System.exit(0);
+			}
+			alignBinSize = bs;
 		}
 
 		//other parameters
@@ -151,52 +197,239 @@ public class Driver implements Callable<ArrayList<File>> {
 			}
 			minRC = mrc;
 		}
+		if (cmd.hasOption("c")) {
+			int cb = Integer.parseInt(cmd.getOptionValue("c"));
+			if (cb <= 0) {
+				System.err.println("Chunk size must be positive.");
+				System.exit(0);
+			}
+			chunkBins = cb;
+		}
+		if (cmd.hasOption("t")) {
+			int nt = Integer.parseInt(cmd.getOptionValue("t"));
+			if (nt <= 0) {
+				System.err.println("Number of threads must be positive.");
+				System.exit(0);
+			}
+			TaskScheduler.setThreads(nt);
+		}
+		if (cmd.hasOption("g")) {
+			int bs = Integer.parseInt(cmd.getOptionValue("g"));
+			if (bs <= 0) {
+				System.err.println("Bin size must be positive.");
+				System.exit(0);
+			}
+			runBinSize = bs;
+		}
+
+		if ((runBinSize > 0 ? 1 : 0) + (depthBinSize > 0 ? 1 : 0) + (alignBinSize > 0 ? 1 : 0) > 1) {
+			System.err.println("Input can only be one of run-length (-g), per-base (-d) or alignments (-a).");
+			System.exit(0);
+		}
+
+		if (cmd.hasOption("so")) {
+			if (alignBinSize > 0) {
+				System.err.println("Alignments cannot be sorted, they must be sorted by coordinate.");
+				System.exit(0);
+			}
+			inBed = sortInput(inBed, sortMemory(cmd.getOptionValue("so")));
+		}
+
+		RunConfig config = new RunConfig.Builder(inBed).outBaseName(outBaseName).windowbpSize(windowbpSize)
+				.medianMult(medianMult).minRC(minRC).chunkBins(chunkBins).binaryTracks(cmd.hasOption("b"))
+				.runBinSize(runBinSize).depthBinSize(depthBinSize).alignBinSize(alignBinSize)
+				.alignCoverage(cmd.hasOption("cov")).build();
+		if (!inBed.endsWith(".bed") && depthBinSize == 0 && alignBinSize == 0 && !config.isStreamInput()) {
+			throw new IllegalArgumentException("Incorrect filetypes");
+		}
+		return config;
+	}
+
+	/** @return the sort memory in bytes, from MB (half the heap if not given) */
+	static long sortMemory(String mb) {
+		if (mb == null) {
+			return Runtime.getRuntime().maxMemory() / 2;
+		}
+		long m = Long.parseLong(mb);
+		if (m <= 0) {
+			System.err.println("Sort memory must be positive.");
+			System.exit(0);
+		}
+		return m << 20;
+	}
+
+	/**
+	 * Sorts bed input by chromosome, start and end into [input without .bed].sorted.bed (see BedSorter), unless an
+	 * earlier run already did and the input has not changed since; an older sorted file is overwritten
+	 * @return the sorted file's name, to be used as the input
+	 */
+	public static String sortInput(String inBed, long memBytes) {
+		File in = new File(inBed);
+		if (!in.isFile()) { //standard input, a pipe, or not found
+			System.err.println("Only files can be sorted: " + inBed);
+			System.exit(1);
+		}
+		String base = inBed.endsWith(".bed") ? inBed.substring(0, inBed.length() - 4) : inBed;
+		File sorted = new File(base + ".sorted.bed");
+		if (sorted.isFile() && sorted.lastModified() >= in.lastModified()) {
+			System.out.println("Using sorted input " + sorted.getPath());
+			return sorted.getPath();
+		}
 
-		//set static parameters
-		IntStats_WGSep.setMinRC(minRC);
-		ProcessChromFile.setWinSize(windowbpSize);
-		ProcessChromFile.setIntSize(intervalSize);
-		ProcessChromFile.setMedMult(medianMult);
-		ProcessChromFile.setOutBaseName(outBaseName);
+		long t0 = System.nanoTime();
+		try {
+			BedSorter.sort(in, sorted, memBytes);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+		System.out.println(inBed + " sorted into " + sorted.getPath() + " in " + (System.nanoTime() - t0) / 1000000 + " ms");
+		return sorted.getPath();
 	}
 
-	public static ArrayList<File> process() throws InterruptedException {
+	public ArrayList<File> process() throws InterruptedException {
+		return finish(submitChroms());
+	}
+
+	/**
+	 * Indexes the input and submits all of its chromosomes to the shared pool, largest first
+	 * @return for each chromosome (in input order), its output file once computed and its chunks appended
+	 */
+	public ArrayList<CompletableFuture<File>> submitChroms() {
+		if (config.isStreamInput()) {
+			return streamChroms();
+		}
 
-		//split chromosome files
-		ArrayList<File> chromFiles = null;
+		//find chromosome byte ranges
 		try {
-			chromFiles = splitChromFiles(inBed);
-		} catch (FileNotFoundException e) {
-			System.out.println(e.getMessage());	
+			chromRanges = indexChroms(config.getInBed());
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
 			System.exit(1);
 		}
+		if (chromRanges == null) { //alignments without an index
+			return streamChroms();
+		}
 
-		int nThreads = Runtime.getRuntime().availableProcessors();
-		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		ArrayList<ArrayList<ProcessChromFile>> workerList = new ArrayList<ArrayList<ProcessChromFile>>();
+		try {
+			if (config.isAlignmentInput()) { //each reference read whole, from where the BAM index puts it
+				for (ChromRange cr : chromRanges) {
+					ArrayList<ProcessChromFile> workers = new ArrayList<ProcessChromFile>();
+					workers.add(new ProcessChromFile(config, cr));
+					workerList.add(workers);
+				}
+			}
+			else {
+				BedChromIndex idx = BedChromIndex.open(config.getInFile());
+				for (ChromRange cr : chromRanges) {
+					workerList.add(planChunks(idx, cr));
+				}
+				idx.close();
+			}
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
 
-		ArrayList<Future<File>> futureList = new ArrayList<Future<File>>();
-		ArrayList<File> outFileList = new ArrayList<File>();
+		//submit largest first (longest processing time first), so the small chromosomes fill in at the end
+		order = new ArrayList<ProcessChromFile>();
+		for (ArrayList<ProcessChromFile> workers : workerList) {
+			order.addAll(workers);
+		}
+		Collections.sort(order, new SizedTask.WorkEstimateSorter());
+
+		//shared with the other samples (and integration) when run from GMIM_Pipeline
+		submitNanos = System.nanoTime();
+		IdentityHashMap<ProcessChromFile, CompletableFuture<File>> submitted = new IdentityHashMap<ProcessChromFile, CompletableFuture<File>>();
+		for (ProcessChromFile worker : order) {
+			submitted.put(worker, TaskScheduler.submit(worker));
+		}
 
-		for (File f : chromFiles) {
-			Callable<File> worker = new ProcessChromFile(dirName, f);
-			Future<File> submit = executor.submit(worker);
-			futureList.add(submit);
+		//each chromosome completes when its chunks are done and appended, in input order
+		ArrayList<CompletableFuture<File>> chromFutures = new ArrayList<CompletableFuture<File>>();
+		for (ArrayList<ProcessChromFile> workers : workerList) {
+			ArrayList<CompletableFuture<File>> futures = new ArrayList<CompletableFuture<File>>();
+			for (ProcessChromFile worker : workers) {
+				futures.add(submitted.get(worker));
+			}
+			chromFutures.add(chromOutput(workers, futures));
 		}
+		return chromFutures;
+	}
 
-		for (Future<File> future : futureList) {
+	/**
+	 * Computes the chromosomes of input read in one pass (standard input, a pipe, alignments without an index) one after the other,
+	 * each as its lines arrive; such input cannot be indexed, chunked or read twice
+	 * @return the chromosomes' output files (already computed), in input order
+	 */
+	private ArrayList<CompletableFuture<File>> streamChroms() {
+		chromRanges = new ArrayList<ChromRange>();
+		order = new ArrayList<ProcessChromFile>();
+		chromIndexLoaded = true; //nothing to save an index next to
+		submitNanos = System.nanoTime();
+
+		//on the pool, so the input is read ahead and the output written behind as for a chromosome of a file
+		CompletableFuture<ArrayList<CompletableFuture<File>>> all = TaskScheduler.submit(
+				new Callable<ArrayList<CompletableFuture<File>>>() {
+			@Override
+			public ArrayList<CompletableFuture<File>> call() throws Exception {
+				ArrayList<CompletableFuture<File>> chromFutures = new ArrayList<CompletableFuture<File>>();
+				HashSet<String> seen = new HashSet<String>();
+				InputStream is = config.getInBed().equals("-") ? System.in : new FileInputStream(config.getInFile());
+				TrackBlockReader in = ChromWindowStream.openShared(config, is);
+				try {
+					ChromWindowStream cs;
+					while ((cs = ChromWindowStream.nextShared(config, in)) != null) {
+						ChromRange cr = cs.getChromRange();
+						if (!seen.add(cr.getChromNum())) {
+							System.err.println("Input must be sorted by chromosome: " + cr.getChromNum() + " appears more than once");
+							System.exit(1);
+						}
+						ProcessChromFile worker = new ProcessChromFile(config, cs);
+						chromRanges.add(cr);
+						order.add(worker);
+						chromFutures.add(CompletableFuture.completedFuture(worker.call()));
+					}
+				} finally {
+					in.close();
+				}
+				return chromFutures;
+			}
+		});
+
+		try {
+			return all.get();
+		} catch (InterruptedException e) {
+			System.out.println(e.getMessage());
+		} catch (ExecutionException e) {
+			System.out.println(e.getCause().getMessage());
+		}
+		System.exit(1);
+		return null;
+	}
+
+	/**
+	 * Waits for the chromosomes submitted by submitChroms(), then saves the index and writes the whole genome file
+	 * @return the chromosomes' output files in input order, followed by the whole genome file
+	 */
+	public ArrayList<File> finish(ArrayList<CompletableFuture<File>> chromFutures) throws InterruptedException {
+		ArrayList<File> outFileList = new ArrayList<File>();
+
+		for (CompletableFuture<File> future : chromFutures) {
 			try {
 				File f = future.get();
 				System.out.println(f.getPath() + " completed");
 				outFileList.add(f);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
 			} catch (ExecutionException e) {
 				e.printStackTrace();
 			}
 		}
 
-		executor.shutdown();
-		executor.awaitTermination(12, TimeUnit.HOURS);
+		printMakespan(order, submitNanos);
+		printStalls(order);
+
+		saveChromIndex(chromRanges);
 
 		try {
 			File wChrFile = mergeWholeChrFile(outFileList);
@@ -208,109 +441,244 @@ public class Driver implements Callable<ArrayList<File>> {
 		return outFileList;
 	}
 
-	public static ArrayList<File> splitChromFiles(String infile) throws FileNotFoundException {
-		ArrayList<File> chromFiles = new ArrayList<File>();
-		Scanner sc;
-		try {
-			sc = new Scanner(new File(infile));
-		} catch (FileNotFoundException e) {
-			throw new FileNotFoundException("File not found: " + infile);
+	/** @return the input's chromosome ranges, once submitChroms() has indexed it */
+	public ArrayList<ChromRange> getChromRanges() {
+		return chromRanges;
+	}
+
+	/**
+	 * Splits a chromosome into chunks of chunkBins intervals to be computed in parallel
+	 * Only chromosomes of contiguous, equal sized intervals (as checked from the first and last lines,
+	 * and the line count if known) longer than a chunk and a window are split
+	 */
+	private ArrayList<ProcessChromFile> planChunks(BedChromIndex idx, ChromRange cr) throws IOException {
+		ArrayList<ProcessChromFile> workers = new ArrayList<ProcessChromFile>();
+		int windowbpSize = config.getWindowbpSize();
+		int chunkBins = config.getChunkBins();
+
+		int chromStart = -1, iS = -1, chromLastStart = -1;
+		if (idx.readFirstLine(cr)) {
+			chromStart = idx.getBinStart();
+			iS = idx.getBinEnd() - idx.getBinStart();
+		}
+		if (idx.readLastLine(cr)) {
+			chromLastStart = idx.getBinStart();
 		}
 
-		spacer = "/";
-		String baseName = infile.substring(0, infile.length() - 4); //remove '.bed'
-		dirName = baseName + "_ChromFiles";
+		//run-length and per-base input have no line per interval to find a chunk's window by
+		boolean chunkable = config.isBinnedInput() && chromStart >= 0 && iS > 0 && chromLastStart >= chromStart
+				&& (chromLastStart - chromStart) % iS == 0 && windowbpSize % iS == 0;
+		long n = chunkable ? ((long) chromLastStart - chromStart) / iS + 1 : 0;
+		if (cr.getLines() >= 0 && cr.getLines() != n) { //index says there are gaps
+			chunkable = false;
+		}
 
-		File dir = new File(dirName);
-		boolean folderMade = dir.mkdirs();
+		if (!chunkable || n <= chunkBins || n < windowbpSize / iS) {
+			workers.add(new ProcessChromFile(config, cr));
+			return workers;
+		}
 
-		if (!dir.exists() && !folderMade) {
-			spacer = "_";
+		long chromEnd = (long) chromLastStart + iS;
+		int k = 0;
+		for (long oS = chromStart; oS < chromEnd; oS += (long) chunkBins * iS) {
+			long oE = Math.min(chromEnd, oS + (long) chunkBins * iS);
+			ChromChunk chunk = new ChromChunk(k, chromStart, chromLastStart, iS, (int) oS, (int) oE);
+			workers.add(new ProcessChromFile(config, cr, chunk));
+			k++;
 		}
+		return workers;
+	}
 
-		if (!sc.hasNextLine()) {
-			sc.close();
-			return null;
+	/**
+	 * Reports the makespan the largest-first schedule was expected to reach against the achieved one
+	 * The expected makespan schedules the size estimates on the pool's threads (LPT), converted to time
+	 * with the run's measured throughput; the lower bound is the larger of the average load and the longest task
+	 */
+	private static void printMakespan(ArrayList<ProcessChromFile> order, long submitNanos) {
+		int nThreads = TaskScheduler.getThreads();
+		long totalWork = 0, totalNanos = 0, longestNanos = 0, lastFinish = submitNanos;
+		for (ProcessChromFile w : order) {
+			totalWork += w.getWorkEstimate();
+			totalNanos += w.getElapsedNanos();
+			longestNanos = Math.max(longestNanos, w.getElapsedNanos());
+			lastFinish = Math.max(lastFinish, w.getFinishNanos());
 		}
+		if (order.isEmpty() || totalWork == 0) return;
 
-		String line = null;
-		String chrom = null;
-		while (chrom == null && sc.hasNextLine()) {
-			line = sc.nextLine();
-			chrom = parseLineChrom(line);
+		PriorityQueue<Long> loads = new PriorityQueue<Long>();
+		for (int i = 0; i < nThreads; i++) {
+			loads.add(0L);
 		}
+		long expectedWork = 0;
+		for (ProcessChromFile w : order) { //already largest first
+			long load = loads.poll() + w.getWorkEstimate();
+			expectedWork = Math.max(expectedWork, load);
+			loads.add(load);
+		}
+
+		double nanosPerWork = (double) totalNanos / totalWork;
+		double lowerBound = Math.max((double) totalNanos / nThreads, longestNanos);
+		System.out.println(String.format("Scheduled %d tasks on %d threads, largest first: expected makespan %.2f s"
+				+ " (lower bound %.2f s), achieved %.2f s", order.size(), nThreads, expectedWork * nanosPerWork / 1e9,
+				lowerBound / 1e9, (lastFinish - submitNanos) / 1e9));
+	}
 
-		File cFile = new File(dirName + spacer + chrom + ".bed");
-		chromFiles.add(cFile);
-		PrintWriter pw = new PrintWriter(cFile);
-		pw.println(line);
+	/**
+	 * Reports how long the tasks' computation waited for input read ahead and for output written behind
+	 * (only with more than one thread, where reading and writing are separate stages)
+	 */
+	private static void printStalls(ArrayList<ProcessChromFile> order) {
+		if (TaskScheduler.getThreads() <= 1 || order.isEmpty()) return;
+		long totalNanos = 0, readWaitNanos = 0, writeWaitNanos = 0;
+		for (ProcessChromFile w : order) {
+			totalNanos += w.getElapsedNanos();
+			readWaitNanos += w.getReadWaitNanos();
+			writeWaitNanos += w.getWriteWaitNanos();
+		}
+		System.out.println(String.format("Stalls: waited %.2f s for input and %.2f s for output in %.2f s of tasks",
+				readWaitNanos / 1e9, writeWaitNanos / 1e9, totalNanos / 1e9));
+	}
 
-		while(sc.hasNextLine()) { //separate files
-			String nChrom = null;
-			while (nChrom == null && sc.hasNextLine()) {
-				line = sc.nextLine();
-				nChrom = parseLineChrom(line);
+	/**
+	 * @return future of a chromosome's output file, completed once all of its workers are done
+	 * and (for a chunked chromosome) the chunks are appended in order
+	 */
+	private CompletableFuture<File> chromOutput(final ArrayList<ProcessChromFile> workers,
+			ArrayList<CompletableFuture<File>> futures) {
+		if (workers.size() == 1) {
+			return futures.get(0);
+		}
+
+		CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+		return all.handle(new BiFunction<Void, Throwable, CompletableFuture<File>>() {
+			@Override
+			public CompletableFuture<File> apply(Void v, Throwable t) {
+				return stitchChunks(workers, t);
 			}
-			if (!chrom.equals(nChrom)) {
-				pw.close();
-				chrom = nChrom;
-				cFile = new File(dirName + spacer + nChrom + ".bed");
-				chromFiles.add(cFile);
-				pw = new PrintWriter(cFile);
+		}).thenCompose(new Function<CompletableFuture<File>, CompletableFuture<File>>() {
+			@Override
+			public CompletableFuture<File> apply(CompletableFuture<File> f) {
+				return f;
 			}
-			pw.println(line);
-		}
+		});
+	}
 
-		pw.close();
-		sc.close();
+	/**
+	 * Appends a chromosome's chunks once they have all finished
+	 * If chunking turned out not to apply (intervals not contiguous), the chromosome is resubmitted whole
+	 * @param t - what a chunk threw, null if they all succeeded
+	 */
+	private CompletableFuture<File> stitchChunks(ArrayList<ProcessChromFile> workers, Throwable t) {
+		ProcessChromFile first = workers.get(0);
+		File outFile = first.getOutFile();
+		ChromRange cr = first.getChromRange();
+		Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+
+		if (cause instanceof IllegalStateException) {
+			ProcessChromFile.deleteChunks(outFile, workers.size());
+			System.out.println(cr.getChromNum() + ": " + cause.getMessage() + ", computing whole chromosome");
+			return TaskScheduler.submit(new ProcessChromFile(config, cr));
+		}
 
-		return chromFiles;
+		CompletableFuture<File> cf = new CompletableFuture<File>();
+		if (cause != null) {
+			cf.completeExceptionally(cause);
+			return cf;
+		}
+		try {
+			ProcessChromFile.mergeChunks(outFile, workers.size());
+			ChromChunk chunk = first.getChunk();
+			cr.setIntervalSize(chunk.getIntervalSize());
+			cr.setLines(chunk.getChromLines());
+			cf.complete(outFile);
+		} catch (IOException e) {
+			cf.completeExceptionally(e);
+		}
+		return cf;
 	}
 
-	/** checks if the line is able to be parsed - if not, the program will ignore the line entirely */
-	public static String parseLineChrom(String line) {
-		String[] ra = line.split("\\s+");
+	/**
+	 * Finds each chromosome's byte range in the (sorted) input, so that chromosomes can be
+	 * processed in parallel straight from the input file
+	 * The ranges are reused from the input's sidecar index if an earlier run saved one
+	 * For alignments, the ranges are the references' offsets from the BAM index
+	 * @return null for alignments without an index (SAM, or BAM without an up to date .bai), to be read in one pass
+	 */
+	public ArrayList<ChromRange> indexChroms(String infile) throws IOException {
+		File f = new File(infile);
+		if (!f.isFile()) {
+			throw new FileNotFoundException("File not found: " + infile);
+		}
 
-		if (ra[0].startsWith("chr")) {
-			return ra[0];
+		if (config.isAlignmentInput()) {
+			chromIndexLoaded = true; //the BAM's own index, nothing to save
+			File bai = BamIndex.indexFile(f);
+			if (bai == null || !BamIndex.isBam(f)) return null;
+			if (bai.lastModified() < f.lastModified()) {
+				System.out.println("BAM index " + bai.getPath() + " is older than the BAM, reading it in one pass");
+				return null;
+			}
+			System.out.println("Using BAM index " + bai.getPath());
+			return BamIndex.chromRanges(f, bai);
 		}
 
-		try {
-			Integer.parseInt(ra[1]);
-			Integer.parseInt(ra[2]);
-			Integer.parseInt(ra[3]);
-		} catch (NumberFormatException e) {
-			return null;
-		} catch (IndexOutOfBoundsException e) {
-			return null;
+		ArrayList<ChromRange> ranges = BedChromIndex.load(f);
+		chromIndexLoaded = ranges != null;
+		if (chromIndexLoaded) {
+			System.out.println("Using chromosome index " + BedChromIndex.sidecarFile(f).getPath());
+			return ranges;
 		}
 
-		return null;
+		return BedChromIndex.build(f);
 	}
 
-	public static File mergeWholeChrFile(ArrayList<File> outChrFiles) throws FileNotFoundException {
-		String wChrFileName = dirName.substring(0, dirName.lastIndexOf("_ChromFiles")) + "_out" + spacer + outBaseName + "_chrAll.bedGraph";
-		File wChrFile = new File (wChrFileName);
-		PrintWriter wholePW = null;
+	/**
+	 * Saves the chromosome index next to the input, unless it was loaded from there
+	 * Does nothing if some chromosome was not read (its line count is not known)
+	 */
+	public void saveChromIndex(ArrayList<ChromRange> chromRanges) {
+		if (chromIndexLoaded) return;
+		for (ChromRange cr : chromRanges) {
+			if (cr.getLines() < 0) return;
+		}
+		if (!BedChromIndex.save(config.getInFile(), chromRanges)) {
+			System.err.println("Could not save chromosome index " + BedChromIndex.sidecarFile(config.getInFile()).getPath());
+		}
+	}
+
+	/**
+	 * Writes the whole genome file: the chromosomes' tracks in the given order, under one header
+	 */
+	public File mergeWholeChrFile(ArrayList<File> outChrFiles) throws FileNotFoundException {
+		if (config.isBinaryTracks()) {
+			File wChrFile = config.getTrackFile("chrAll");
+			try {
+				return BinaryTrackWriter.concatenate(outChrFiles, wChrFile);
+			} catch (IOException e) {
+				throw new FileNotFoundException("Could not write " + wChrFile.getPath() + ": " + e.getMessage());
+			}
+		}
+
+		File wChrFile = config.getOutFile("chrAll");
+		String wChrFileName = wChrFile.getPath();
+		BedGraphWriter wholePW = null;
 		try {
-			wholePW = new PrintWriter(wChrFile);
+			wholePW = new BedGraphWriter(wChrFile);
 		} catch (FileNotFoundException e) {
 			throw new FileNotFoundException("File not found: " + wChrFileName);
 		}
 
-		wholePW.println("track type=bedGraph name=\"" + wChrFileName + "\"" + " description=\"" + wChrFileName + "\" "
-				+ "visibility=full autoScale=Off alwaysZero=On maxHeightPixels=128:30:11 viewLimits=0:1"); //header
-
-		for(File cFile : outChrFiles) {
-			Scanner sc = new Scanner(cFile);
-			sc.nextLine(); //skip header
-			while(sc.hasNextLine()) {
-				wholePW.println(sc.nextLine());
-			}
-			sc.close();
+		try {
+			wholePW.write("track type=bedGraph name=\"" + wChrFileName + "\"" + " description=\"" + wChrFileName + "\" "
+					+ "visibility=full autoScale=Off alwaysZero=On maxHeightPixels=128:30:11 viewLimits=0:1"); //header
+			wholePW.newLine();
+			wholePW.close();
+
+			//the chromosomes' lines are copied as they are, after their headers
+			BedGraphTrackWriter.append(outChrFiles, wChrFile);
+		} catch (IOException e) {
+			throw new FileNotFoundException("Could not write " + wChrFileName + ": " + e.getMessage());
 		}
-
-		wholePW.close();
 		//		System.out.println("Merging completed");
 		return wChrFile;
 	}
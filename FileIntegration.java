@@ -1,49 +1,143 @@
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Scanner;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.concurrent.Callable;
 
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
 /**
- * Integrates the given bedGraph files
+ * Integrates the given bedGraph (or binary) cMBF tracks
  * Output goes to first filename
  */
 public class FileIntegration implements Callable<File> {
 	
-	/** Used when calling from main */
-	private static ArrayList<String> filenames;
-	/** Used when calling from GMIM Pipeline */
-	private static ArrayList<File> files;
+	/** Files to integrate */
+	private final ArrayList<File> files;
 	/** Integration output filename */
-	private static String outfile;
+	private final String outfile;
+	/** how the tracks are combined */
+	private final IntegrationConfig config;
+	
+	/** Number of intervals integrated at a time */
+	static final int BLOCK_SIZE = 4096;
 	
 	public FileIntegration(ArrayList<File> fs, String oF) {
+		this(fs, oF, IntegrationConfig.defaults());
+	}
+	
+	public FileIntegration(ArrayList<File> fs, String oF, IntegrationConfig iC) {
 		files = fs;
 		outfile = oF;
+		config = iC;
 	}
 	
 	/**
 	 * Main method
-	 *@param args - bedGraph files to integrate
+	 *@param args - [-l to integrate in log space] [-of number of tracks read at once]
+	 * [-u to integrate the union of the tracks' intervals] [-mv cMBF where a track has no interval]
+	 * [-c number of intervals per parallel part of a chromosome] output file, bedGraph (or binary) tracks to integrate
+	 * (or, with [-ss subsets file], the subsets' output files and tracks, see SubsetIntegration)
 	 */
 	public static void main(String[] args) throws Exception{
-		filenames = new ArrayList<String>();
+		ArrayList<String> filenames = new ArrayList<String>();
+		Options options = new Options();
+
+		Option logOpt = new Option("l", "logSpace", false, "[opt] integrate by adding the logs of the cMBFs, so the product does not underflow partway through many tracks");
+		logOpt.setRequired(false);
+		options.addOption(logOpt);
+
+		Option openFiles = new Option("of", "openFiles", true, "[opt] number of tracks each integration reads at once, more are integrated in groups, default: " + IntegrationConfig.DEFAULT_MAX_OPEN_FILES);
+		openFiles.setRequired(false);
+		options.addOption(openFiles);
+
+		Option union = new Option("u", "union", false, "[opt] integrate over the union of the tracks' intervals, which may differ in size or have gaps");
+		union.setRequired(false);
+		options.addOption(union);
+
+		Option missing = new Option("mv", "missingValue", true, "[opt] with --union, cMBF of a track where it has no interval, default: 0");
+		missing.setRequired(false);
+		options.addOption(missing);
+
+		Option chunkSize = new Option("c", "chunkSize", true, "[opt] number of intervals per parallel part of a chromosome");
+		chunkSize.setRequired(false);
+		options.addOption(chunkSize);
+
+		Option subsetsOpt = new Option("ss", "subsets", true, "[opt] file of subsets to integrate, each an output file and its tracks, instead of the tracks given");
+		subsetsOpt.setRequired(false);
+		options.addOption(subsetsOpt);
+
+		Option help = new Option("h", "help", false, "");
+		options.addOption(help);
+
+		CommandLineParser parser = new DefaultParser();
+		HelpFormatter formatter = new HelpFormatter();
+		CommandLine cmd = null;
+
+		String syntax = "FileIntegration [options] [output file] [tracks to integrate]";
+		String header = "Integrate bedGraph (or " + BinaryTrackWriter.EXTENSION + ") cMBF tracks \n\n";
+
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.out.println(e.getMessage());
+			formatter.printHelp(syntax, header, options, "", false);
+			System.exit(1);
+		}
+
+		if (cmd.hasOption("h")) {
+			formatter.printHelp(syntax, header, options, "", false);
+			return;
+		}
+		String[] rest = cmd.getArgs();
+		int maxOpenFiles = cmd.hasOption("of") ? parseOpenFiles(cmd.getOptionValue("of")) : IntegrationConfig.DEFAULT_MAX_OPEN_FILES;
+		double missingValue = cmd.hasOption("mv") ? parseMissingValue(cmd.getOptionValue("mv")) : 0;
+		int chunkBins = cmd.hasOption("c") ? parseChunkBins(cmd.getOptionValue("c")) : Driver.DEFAULT_CHUNK_BINS;
+		String subsetsFile = cmd.getOptionValue("ss");
 		
-		if (args.length < 3) {
+		IntegrationConfig config = new IntegrationConfig.Builder().logSpace(cmd.hasOption("l")).maxOpenFiles(maxOpenFiles).union(cmd.hasOption("u"))
+				.missingValue(missingValue).chunkBins(chunkBins).build();
+		if (subsetsFile != null) {
+			if (rest.length > 0) {
+				System.err.println("Subsets file given with files to integrate: " + rest[0]);
+				System.exit(1);
+			}
+			LinkedHashMap<String, ArrayList<File>> subsets = null;
+			try {
+				subsets = SubsetIntegration.readSubsets(new File(subsetsFile));
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+				System.exit(1);
+			}
+			SubsetIntegration.integrateSubsets(subsets, config);
+			return;
+		}
+		
+		if (rest.length < 3) {
 			System.err.println("Must include files to integrate");
 			System.exit(1);
 		}
 		
-		outfile = args[0];
+		String outfile = rest[0];
 		
-		for (int i = 1; i < args.length; i++) {
-			String s = args[i];
-			if (!s.endsWith(".bedGraph")) {
-				System.err.println("Incorrect filetypes - must be a .bedGraph: " + s);
+		for (int i = 1; i < rest.length; i++) {
+			String s = rest[i];
+			if (!s.endsWith(".bedGraph") && !s.endsWith(BinaryTrackWriter.EXTENSION)) {
+				System.err.println("Incorrect filetypes - must be a .bedGraph or " + BinaryTrackWriter.EXTENSION + ": " + s);
 				System.exit(1);
 			}
 			
@@ -55,121 +149,430 @@ public class FileIntegration implements Callable<File> {
 			System.exit(1);
 		}
 		
-		startIntegMain();
+		startIntegMain(filenames, outfile, config);
+	}
+	
+	/** @return the number of tracks to read at once, exits if it is not at least 2 */
+	static int parseOpenFiles(String s) {
+		int n = 0;
+		try {
+			n = Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+		}
+		if (n < 2) {
+			System.err.println("Number of open files must be at least 2: " + s);
+			System.exit(1);
+		}
+		return n;
+	}
+	
+	/** @return the number of intervals per parallel part of a chromosome, exits if it is not positive */
+	static int parseChunkBins(String s) {
+		int n = 0;
+		try {
+			n = Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+		}
+		if (n <= 0) {
+			System.err.println("Chunk size must be positive: " + s);
+			System.exit(1);
+		}
+		return n;
+	}
+	
+	/** @return the cMBF of a track where it has no interval, exits if it is not a number from 0 to 1 */
+	static double parseMissingValue(String s) {
+		double v = -1;
+		try {
+			v = Double.parseDouble(s);
+		} catch (NumberFormatException e) {
+		}
+		if (!(v >= 0 && v <= 1)) {
+			System.err.println("Missing value must be from 0 to 1: " + s);
+			System.exit(1);
+		}
+		return v;
 	}
 	
 	@Override
 	public File call() throws Exception {
-		ArrayList<Scanner> scannerList = new ArrayList<Scanner>();
+		return integrateFiles(files, outfile, config);
+	}
 
-		for (File f: files) {
-			try {
-				Scanner sc = new Scanner(f);
-				scannerList.add(sc);
-				sc.nextLine(); //ignore header
-			} catch (FileNotFoundException e) {
+	public static void startIntegMain(ArrayList<String> filenames, String outfile, IntegrationConfig config) throws IOException {
+		ArrayList<File> files = new ArrayList<File>();
+		for (String filename : filenames) {
+			files.add(new File(filename));
+		}
+		
+		integrateFiles(files, outfile, config);
+	}
+	
+	/**
+	 * Integrates the tracks
+	 * A chromosome with more than chunkBins intervals is split into parts that are integrated in parallel
+	 * (if every track has the same chromosomes, in the same places), the parts' outputs then being
+	 * joined in order, which gives the same output as one pass
+	 */
+	public static File integrateFiles(List<File> files, String outfile, IntegrationConfig config) throws IOException {
+		for (File f : files) {
+			if (!f.isFile()) {
 				System.err.println("File not found: " + f.getPath());
 				System.exit(1);
 			}
 		}
 		
-		File integFile = integration(scannerList);
+		if (config.isUnion()) {
+			return integrateRange(files, outfile, config, SweepIntegration.chromosomeOrder(files), null);
+		}
+		
+		ArrayList<IntegrationSplit> splits = planSplits(files, config.getChunkBins());
+		if (splits == null || splits.size() < 2) {
+			return integrateRange(files, outfile, config, null, null);
+		}
+		
+		//forked rather than submitted: an integration running on the pool joins its parts, helping run them
+		ArrayList<TaskScheduler.Stage<File>> stages = new ArrayList<TaskScheduler.Stage<File>>();
+		ArrayList<File> splitFiles = new ArrayList<File>();
+		for (final IntegrationSplit split : splits) {
+			final File splitFile = new File(tempFileName(outfile, ".split" + split.getIndex()));
+			splitFile.deleteOnExit(); //in case a part stops the program
+			splitFiles.add(splitFile);
+			stages.add(TaskScheduler.fork(new SplitTask(files, splitFile.getPath(), config, split)));
+		}
+		
+		for (TaskScheduler.Stage<File> s : stages) {
+			s.await();
+		}
+		
+		File integFile = concatenate(splitFiles, outfile);
+		for (File f : splitFiles) {
+			f.delete();
+		}
 		return integFile;
+	}
+	
+	/** Integrates one part of a chromosome */
+	private static class SplitTask implements Callable<File> {
+		private final List<File> files;
+		private final String outfile;
+		private final IntegrationConfig config;
+		private final IntegrationSplit split;
 		
+		SplitTask(List<File> fs, String oF, IntegrationConfig iC, IntegrationSplit s) {
+			files = fs;
+			outfile = oF;
+			config = iC;
+			split = s;
+		}
+		
+		@Override
+		public File call() throws IOException {
+			return integrateRange(files, outfile, config, null, split);
+		}
 	}
-
-	public static void startIntegMain() throws FileNotFoundException {
-		ArrayList<Scanner> scannerList = new ArrayList<Scanner>();
-
-		for (String filename : filenames) {
-			try {
-				Scanner sc = new Scanner(new File(filename));
-				scannerList.add(sc);
-				sc.nextLine(); //ignore header
-			} catch (FileNotFoundException e) {
-				System.err.println("File not found: " + filename);
-				System.exit(1);
+	
+	/**
+	 * Splits the tracks' chromosomes into parts of about chunkBins intervals, aligned by coordinate
+	 * @return the parts in output order, or null if the tracks do not all have the same chromosomes with the
+	 * same spans and interval sizes (they are then integrated in one pass, which finds where they differ)
+	 */
+	static ArrayList<IntegrationSplit> planSplits(List<File> files, int chunkBins) throws IOException {
+		//every part opens all the tracks, so parts smaller than a block are not worth it
+		chunkBins = Math.max(chunkBins, BLOCK_SIZE);
+		
+		ArrayList<ArrayList<TrackSpan>> trackSpans = new ArrayList<ArrayList<TrackSpan>>();
+		for (File f : files) {
+			ArrayList<TrackSpan> spans = TrackSpan.read(f);
+			if (!coversTrack(f, spans)) return null;
+			trackSpans.add(spans);
+		}
+		
+		ArrayList<TrackSpan> ref = trackSpans.get(0);
+		HashSet<String> chroms = new HashSet<String>();
+		for (TrackSpan sp : ref) {
+			if (!chroms.add(sp.getChromNum())) return null;
+		}
+		for (ArrayList<TrackSpan> spans : trackSpans) {
+			if (spans.size() != ref.size()) return null;
+			for (int k = 0; k < ref.size(); k++) {
+				if (!spans.get(k).sameAs(ref.get(k))) return null;
+			}
+		}
+		
+		ArrayList<IntegrationSplit> splits = new ArrayList<IntegrationSplit>();
+		for (int k = 0; k < ref.size(); k++) {
+			TrackSpan sp = ref.get(k);
+			ChromRange[] chromRanges = new ChromRange[files.size()];
+			for (int t = 0; t < files.size(); t++) {
+				chromRanges[t] = trackSpans.get(t).get(k).getChromRange();
+			}
+			
+			long size = sp.getIntervalSize();
+			long bins = Math.max(1, ((long) sp.getEnd() - sp.getStart() + size - 1) / size);
+			long nSplits = (bins + chunkBins - 1) / chunkBins;
+			long splitBins = (bins + nSplits - 1) / nSplits;
+			for (long i = 0; i < nSplits; i++) {
+				//the first and last parts are open ended, so intervals of other sizes are not left out
+				int from = i == 0 ? Integer.MIN_VALUE : (int) (sp.getStart() + i * splitBins * size);
+				int to = i == nSplits - 1 ? Integer.MAX_VALUE : (int) (sp.getStart() + (i + 1) * splitBins * size);
+				splits.add(new IntegrationSplit(splits.size(), sp.getChromNum(), from, to, chromRanges));
+			}
+		}
+		return splits;
+	}
+	
+	/**
+	 * @return true if the chromosomes' spans take in every interval of the track, as a one pass read would
+	 * (a bedGraph track's first line is its header, and every line after it is in a chromosome's range)
+	 */
+	private static boolean coversTrack(File f, ArrayList<TrackSpan> spans) throws IOException {
+		if (f.getName().endsWith(BinaryTrackWriter.EXTENSION)) return true;
+		if (spans.isEmpty()) return false;
+		
+		long headerEnd = 0;
+		InputStream in = new BufferedInputStream(new FileInputStream(f));
+		try {
+			int b;
+			while ((b = in.read()) >= 0) {
+				headerEnd++;
+				if (b == '\n') break;
 			}
+		} finally {
+			in.close();
 		}
 		
-		integration(scannerList);
+		long off = headerEnd;
+		for (TrackSpan sp : spans) {
+			if (sp.getChromRange().getStart() != off) return false;
+			off = sp.getChromRange().getEnd();
+		}
+		return off == f.length();
 	}
 	
 	/**
-	 * Integrate the output bedGraph files
+	 * Integrates the tracks (or one part of their chromosomes), reading at most maxOpenFiles of them at a time
+	 * With more tracks, they are integrated in groups: each group's partial product (or sum of logs) is
+	 * written at full precision to a temporary file that is the first input of the next group, so the
+	 * product is taken in the same order, and gives the same output, as in one pass
+	 * @param chromOrder - with union, the order of the chromosomes
+	 * @param split - the part to integrate, null for the whole tracks
+	 */
+	private static File integrateRange(List<File> files, String outfile, IntegrationConfig config,
+			List<String> chromOrder, IntegrationSplit split) throws IOException {
+		int maxOpenFiles = config.getMaxOpenFiles();
+		File partial = null;
+		int next = 0;
+		for (int pass = 0; ; pass++) {
+			ArrayList<TrackReader> readerList = new ArrayList<TrackReader>();
+			if (partial != null) {
+				readerList.add(openTrack(partial));
+			}
+			int partialTracks = next;
+			int nTracks = Math.min(files.size() - next, maxOpenFiles - readerList.size());
+			for (int t = next; t < next + nTracks; t++) {
+				File f = files.get(t);
+				readerList.add(split == null ? openTrack(f) : split.open(f, t));
+			}
+			next += nTracks;
+			boolean lastPass = next == files.size();
+			
+			String groupOutfile = lastPass ? outfile : tempFileName(outfile, ".partial" + pass);
+			if (config.isUnion()) {
+				SweepIntegration.integration(readerList, groupOutfile, config, chromOrder, partialTracks, !lastPass);
+			}
+			else {
+				integration(readerList, groupOutfile, config.isLogSpace(), partial != null, !lastPass, split != null);
+			}
+			if (partial != null) {
+				partial.delete();
+			}
+			if (lastPass) {
+				return new File(outfile);
+			}
+			partial = new File(groupOutfile);
+		}
+	}
+	
+	/** @return name of a temporary file next to the output (a part's output, or a group's partial product) */
+	static String tempFileName(String outfile, String suffix) {
+		String base = outfile.endsWith(".bedGraph") ? outfile.substring(0, outfile.length() - ".bedGraph".length()) : outfile;
+		return base + suffix + ".bedGraph";
+	}
+
+	/** Opens a track for reading, binary if it has the binary extension, bedGraph otherwise */
+	static TrackReader openTrack(File f) throws IOException {
+		if (!f.isFile()) {
+			throw new FileNotFoundException("File not found: " + f.getPath());
+		}
+		if (f.getName().endsWith(BinaryTrackWriter.EXTENSION)) {
+			return new BinaryTrackReader(f);
+		}
+		return new BedGraphTrackReader(f);
+	}
+	
+	/**
+	 * Integrate the output bedGraph files, a block of intervals at a time
+	 * @param logSpace - true to add the logs of the cMBFs rather than multiply them, so the product
+	 * does not underflow partway through many tracks (the output is still the product)
 	 * @throws FileNotFoundException 
 	 * @throws IOException 
 	 */
-	public static File integration(ArrayList<Scanner> scannerList) throws FileNotFoundException {
+	public static File integration(ArrayList<TrackReader> readerList, String outfile, boolean logSpace) throws IOException {
+		return integration(readerList, outfile, logSpace, false, false, false);
+	}
+	
+	/**
+	 * @param firstIsPartial - true if the first track is an earlier group's partial output
+	 * @param partialOutput - true to write the partial output for a later group (in log space, the sum of logs)
+	 * @param sameEnd - true if the tracks must all end together (parts of a chromosome), rather than the
+	 * integration stopping at the end of the shortest
+	 */
+	private static File integration(ArrayList<TrackReader> readerList, String outfile, boolean logSpace,
+			boolean firstIsPartial, boolean partialOutput, boolean sameEnd) throws IOException {
 		
 		File integFile = new File(outfile);
-		PrintWriter pw = null;
+		BedGraphWriter pw = null;
 		try {
 			
-			pw = new PrintWriter(integFile);
+			pw = new BedGraphWriter(integFile);
 		} catch (FileNotFoundException e) {
 			throw new FileNotFoundException("File not found: " + outfile);
 		}
 		
-		boolean endReached = false;
+		writeHeader(pw, outfile);
 		
-		pw.println("track type=bedGraph name=\"" + outfile.substring(0, outfile.lastIndexOf(".bedGraph")) + "\" " 
-				+ "visibility=full autoScale=Off alwaysZero=On maxHeightPixels=128:30:11 viewLimits=0:1 color=255,30,30");
+		int nTracks = readerList.size();
+		//read the next blocks ahead while this one is integrated, if there are threads to do it
+		boolean prefetch = TaskScheduler.getThreads() > 1;
+		TrackBlockReader[] blocks = new TrackBlockReader[nTracks];
+		for (int i = 0; i < nTracks; i++) {
+			blocks[i] = new TrackBlockReader(readerList.get(i), BLOCK_SIZE, prefetch);
+		}
+		double[] acc = new double[BLOCK_SIZE];
 		
-		while(scannerList.get(0).hasNextLine() && endReached == false) {
-			String chr = "";
-			int start = -1;
-			int end = -1;
+		boolean endReached = false;
+		while (!endReached) {
+			//blocks of the tracks only differ in size where a track ends (or the regions do not match)
+			int n = BLOCK_SIZE;
+			for (TrackBlockReader b : blocks) {
+				n = Math.min(n, b.readBlock());
+			}
+			if (n == 0 && !sameEnd) break;
+			
+			for (TrackBlockReader b : blocks) {
+				endReached |= b.isEndReached() && b.size() == n;
+			}
 			
-			double product = 1;
-			String[] raComp = null;
+			TrackBlockReader first = blocks[0];
+			for (int i = 1; i < nTracks; i++) {
+				int j = n > 0 ? blocks[i].firstMismatch(first, n) : -1;
+				if (j < 0 && (!endReached || sameEnd) && blocks[i].size() != first.size()) {
+					j = n; //one of the tracks moves on to the next chromosome (or ends) before the other
+				}
+				if (j >= 0) {
+					String where = blocks[i].intervalString(j);
+					System.err.println("File regions do not match: " + (where != null ? where : first.intervalString(j)));
+					System.exit(1);
+				}
+			}
+			if (n == 0) break;
 			
-			for (int i = 0; i < scannerList.size() && !endReached; i++) {
-				Scanner sc = scannerList.get(i);
-				
-				if (!sc.hasNextLine()) {
-					endReached = true;
+			initBlock(acc, n, logSpace);
+			for (int i = 0; i < nTracks; i++) {
+				if (i == 0 && firstIsPartial && logSpace) {
+					addLogs(acc, blocks[i].getValues(), n);
 				}
-				else { //process file
-					
-					String line = sc.nextLine();
-					String[] ra = line.split("\\s");
-						
-					//check that the line chr/start/end match
-					if (raComp == null) {
-						raComp = Arrays.copyOf(ra, ra.length);
-					}
-					else if (!lineMatchingRegion(raComp, ra)) {
-						System.err.println("File regions do not match: " + line);
-						System.exit(1);
-					}
-					
-					chr = ra[0];
-					start = Integer.parseInt(ra[1]);
-					end = Integer.parseInt(ra[2]);			
-					double cMBF = Double.parseDouble(ra[3]);
-					product *= cMBF;
+				else {
+					accumulate(acc, blocks[i].getValues(), n, logSpace);
 				}
 			}
-			pw.println(chr + "\t" + start + "\t" + end + "\t" + product);
+			if (!partialOutput) {
+				finishBlock(acc, n, logSpace);
+			}
+			
+			writeBlock(pw, first.getChromBytes(), first.getStarts(), first.getEnds(), acc, n);
 		}
 
-		for (Scanner sc: scannerList) {
-			sc.close();
+		for (TrackBlockReader b : blocks) {
+			b.close();
 		}
 		pw.close();
 		
 		return integFile;
 	}
-
-	private static boolean lineMatchingRegion(String[] raComp, String[] ra) {
-		for (int i = 0; i < 3; i++) { //check chr, start, end
-			if (!raComp[i].equals(ra[i])) {
-				return false;
+	
+	/** Starts a block's accumulator: 1 for a product, 0 for a sum of logs */
+	static void initBlock(double[] acc, int n, boolean logSpace) {
+		Arrays.fill(acc, 0, n, logSpace ? 0 : 1);
+	}
+	
+	/**
+	 * Folds one track's values into the accumulator
+	 * Plain loops over arrays, which the JIT compiles to SIMD instructions
+	 * (the product is taken in track order, so it is the same as multiplying one line at a time)
+	 */
+	static void accumulate(double[] acc, double[] values, int n, boolean logSpace) {
+		if (logSpace) {
+			for (int j = 0; j < n; j++) {
+				acc[j] += Math.log(values[j]);
+			}
+		}
+		else {
+			for (int j = 0; j < n; j++) {
+				acc[j] *= values[j];
+			}
+		}
+	}
+	
+	/** Adds a partial sum of logs into the accumulator */
+	static void addLogs(double[] acc, double[] logs, int n) {
+		for (int j = 0; j < n; j++) {
+			acc[j] += logs[j];
+		}
+	}
+	
+	/** Turns a sum of logs back into the product */
+	static void finishBlock(double[] acc, int n, boolean logSpace) {
+		if (logSpace) {
+			for (int j = 0; j < n; j++) {
+				acc[j] = Math.exp(acc[j]);
 			}
 		}
-		return true;
 	}
 	
+	/** Writes a block of integrated intervals */
+	static void writeBlock(BedGraphWriter pw, byte[] chrom, int[] starts, int[] ends, double[] acc, int n) throws IOException {
+		for (int j = 0; j < n; j++) {
+			pw.write(chrom);
+			pw.write('\t');
+			pw.writeInt(starts[j]);
+			pw.write('\t');
+			pw.writeInt(ends[j]);
+			pw.write('\t');
+			pw.writeDouble(acc[j]);
+			pw.newLine();
+		}
+	}
 
+	/** Writes the bedGraph track line of an integration output file */
+	static void writeHeader(BedGraphWriter pw, String outfile) throws IOException {
+		pw.write("track type=bedGraph name=\"" + outfile.substring(0, outfile.lastIndexOf(".bedGraph")) + "\" " 
+				+ "visibility=full autoScale=Off alwaysZero=On maxHeightPixels=128:30:11 viewLimits=0:1 color=255,30,30");
+		pw.newLine();
+	}
+	
+
+	/**
+	 * Concatenates integration outputs (skipping their headers) into one file with its own header
+	 */
+	public static File concatenate(List<File> integFiles, String outfile) throws IOException {
+		File integFile = new File(outfile);
+		BedGraphWriter pw = new BedGraphWriter(integFile);
+		FileIntegration.writeHeader(pw, outfile);
+		pw.close();
+
+		BedGraphTrackWriter.append(integFiles, integFile);
+		return integFile;
+	}
 }
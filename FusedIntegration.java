@@ -0,0 +1,131 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * Computes and integrates one chromosome of all samples in one pass
+ * The samples' windows advance in lockstep and the product of their cMBFs is written straight to the
+ * integration output, so the per-sample tracks do not have to be written and read back (they are only
+ * written if asked for). The output is the same as integrating the per-sample tracks with FileIntegration.
+ */
+class FusedIntegration implements Callable<File>, SizedTask {
+
+	/** parameters of each sample's run */
+	private final RunConfig[] configs;
+	/** the chromosome's range in each sample's input */
+	private final ChromRange[] chromRanges;
+	/** Integration output filename */
+	private final String outfile;
+	/** true to also write each sample's track */
+	private final boolean writeTracks;
+	/** true to integrate in log space */
+	private final boolean logSpace;
+
+	public FusedIntegration(RunConfig[] rCs, ChromRange[] cRs, String oF, boolean wT, boolean lS) {
+		configs = rCs;
+		chromRanges = cRs;
+		outfile = oF;
+		writeTracks = wT;
+		logSpace = lS;
+	}
+
+	public ChromRange[] getChromRanges() {
+		return chromRanges;
+	}
+
+	/** @return estimated work of the task, in bytes of input over all samples */
+	@Override
+	public long getWorkEstimate() {
+		long work = 0;
+		for (ChromRange cr : chromRanges) {
+			work += cr.getLength();
+		}
+		return work;
+	}
+
+	@Override
+	public File call() throws Exception {
+		int nSamples = configs.length;
+		ChromWindowStream[] streams = new ChromWindowStream[nSamples];
+		TrackWriter[] tracks = new TrackWriter[nSamples];
+		File integFile = new File(outfile);
+		BedGraphWriter pw = new BedGraphWriter(integFile);
+
+		try {
+			for (int i = 0; i < nSamples; i++) {
+				streams[i] = new ChromWindowStream(configs[i], chromRanges[i]);
+				if (writeTracks) {
+					tracks[i] = ProcessChromFile.openTrack(configs[i], getTrackFile(i), true);
+				}
+			}
+
+			FileIntegration.writeHeader(pw, outfile);
+
+			int[] starts = new int[FileIntegration.BLOCK_SIZE];
+			int[] ends = new int[FileIntegration.BLOCK_SIZE];
+			double[] values = new double[FileIntegration.BLOCK_SIZE];
+			double[] acc = new double[FileIntegration.BLOCK_SIZE];
+
+			boolean endReached = false;
+			while (!endReached) {
+				//a block of intervals of each sample in turn, ending early where a sample's chromosome does
+				int n = FileIntegration.BLOCK_SIZE;
+				FileIntegration.initBlock(acc, n, logSpace);
+
+				for (int i = 0; i < nSamples && n > 0; i++) {
+					ChromWindowStream cs = streams[i];
+					int j = 0;
+					while (j < n && cs.next()) {
+						if (i == 0) {
+							starts[j] = cs.getStart();
+							ends[j] = cs.getEnd();
+						}
+						//check that the intervals match the first sample's
+						else if (cs.getStart() != starts[j] || cs.getEnd() != ends[j]) {
+							System.err.println("Sample regions do not match: " + chromRanges[i].getChromNum() + "\t"
+									+ cs.getStart() + "\t" + cs.getEnd() + " (" + configs[i].getInBed() + ")");
+							System.exit(1);
+						}
+						if (writeTracks) {
+							tracks[i].add(cs.getChromBytes(), cs.getStart(), cs.getEnd(), cs.getcMBF());
+						}
+						//the value as written to (and read back from) a track
+						values[j] = BedGraphWriter.roundFixed(cs.getcMBF(), 5);
+						j++;
+					}
+					if (j < n) {
+						endReached = true;
+						n = j;
+					}
+					FileIntegration.accumulate(acc, values, n, logSpace);
+				}
+
+				FileIntegration.finishBlock(acc, n, logSpace);
+				FileIntegration.writeBlock(pw, streams[0].getChromBytes(), starts, ends, acc, n);
+			}
+
+			if (writeTracks) { //finish the tracks of samples that are longer than the integration
+				for (int i = 0; i < nSamples; i++) {
+					ChromWindowStream cs = streams[i];
+					while (cs.next()) {
+						tracks[i].add(cs.getChromBytes(), cs.getStart(), cs.getEnd(), cs.getcMBF());
+					}
+				}
+			}
+		} finally {
+			for (int i = 0; i < nSamples; i++) {
+				if (streams[i] != null) streams[i].close();
+				if (tracks[i] != null) tracks[i].close();
+			}
+			pw.close();
+		}
+
+		return integFile;
+	}
+
+	/** @return the sample's track file of the chromosome (written only if tracks were asked for) */
+	public File getTrackFile(int sample) {
+		return configs[sample].getTrackFile(chromRanges[sample].getChromNum());
+	}
+}
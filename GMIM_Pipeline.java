@@ -1,14 +1,19 @@
 
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.Callable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -20,61 +25,74 @@ import org.apache.commons.cli.ParseException;
 
 public class GMIM_Pipeline {
 
-	/** Window size for calculating cMBF (in bp) */
-	private static Integer windowbpSize;
-	/** Read resolution / width of bin */
-	private static int intervalSize;
-	/** Median multiple */
-	private static double medianMult;
-	/** Minimum read count (in place of zero) */
-	private static double minRC;
-
 	private static String[] inBedFileNames;
-	private static String[] outBaseNames;
+	/** parameters of each sample's run */
+	private static RunConfig[] sampleConfigs;
 	private static String integBaseName;
+	/** compute and integrate in one pass */
+	private static boolean fused;
+	/** with fused, also write the per-sample tracks */
+	private static boolean writeTracks;
+	/** how the samples' tracks are integrated */
+	private static IntegrationConfig integConfig;
+	/** true if the samples are the columns of one count matrix */
+	private static boolean matrix;
 
 	public static void main(String[] args) throws Exception {
 		parseMultOptions(args);
 
-		//available processors / samples for each
-		int nThreads = Runtime.getRuntime().availableProcessors() / inBedFileNames.length;
-		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
-		
-		ArrayList<Future<ArrayList<File>>> futureList = new ArrayList<Future<ArrayList<File>>>();
-		/** (# samples) of ArrayLists of the output files*/
-		ArrayList<ArrayList<File>> allOutFiles = new ArrayList<ArrayList<File>>();
-
-		for (int i = 0; i < inBedFileNames.length; i++) {
-			String inBed = inBedFileNames[i];
-			String outBase = outBaseNames[i];
-			
-			Callable<ArrayList<File>> worker = new Driver(inBed, outBase);
-			Future<ArrayList<File>> submit = executor.submit(worker);
-			futureList.add(submit);
-		}
-
-		int i = 0;
-		for (Future<ArrayList<File>> future : futureList) {
-	        try {
-	        	ArrayList<File> f = future.get();
-	            System.out.println(inBedFileNames[i] + " completed\n");
-	        	allOutFiles.add(f);
-	        	i++;
-	        } catch (InterruptedException e) {
-	            e.printStackTrace();
-	        } catch (ExecutionException e) {
-	            e.printStackTrace();
-	        }
-	    }
-		
-		executor.shutdown();
-		executor.awaitTermination(12, TimeUnit.HOURS);
+		if (matrix) {
+			integrateMatrix();
+			System.out.println("\ncMBF calculations completed\n***\n");
+			return;
+		}
+
+		if (fused) {
+			integrateFused();
+			System.out.println("\nIntegration completed\n***\n");
+			return;
+		}
+
+		//samples, their chromosomes and the integrations all share one pool
+		int nSamples = sampleConfigs.length;
+		Driver[] drivers = new Driver[nSamples];
+		ArrayList<ArrayList<CompletableFuture<File>>> sampleFutures = new ArrayList<ArrayList<CompletableFuture<File>>>();
+		for (int i = 0; i < nSamples; i++) {
+			drivers[i] = new Driver(sampleConfigs[i]);
+			sampleFutures.add(drivers[i].submitChroms());
+		}
+
+		//each chromosome is integrated as soon as every sample has it
+		ArrayList<CompletableFuture<File>> integFutures = new ArrayList<CompletableFuture<File>>();
+		String spacer = null;
+		if (nSamples > 1) {
+			spacer = makeIntegDir();
+			integFutures = submitIntegrations(drivers, sampleFutures, spacer);
+		}
+
+		for (int i = 0; i < nSamples; i++) {
+			drivers[i].finish(sampleFutures.get(i));
+			System.out.println(inBedFileNames[i] + " completed\n");
+		}
 		
 		System.out.println("\ncMBF calculations completed\n***\n");
 		
 		//integrate
-		if (allOutFiles.size() > 1) {
-			integrateAll(allOutFiles);
+		if (nSamples > 1) {
+			ArrayList<File> outFileList = new ArrayList<File>();
+			for (CompletableFuture<File> future : integFutures) {
+				try {
+					File f = future.get();
+					System.out.println(f.getPath() + " integration completed");
+					outFileList.add(f);
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+				}
+			}
+
+			//whole genome, from the chromosomes already integrated
+			File wChrFile = FileIntegration.concatenate(outFileList, integBaseName + spacer + "integ_chrAll.bedGraph");
+			System.out.println(wChrFile.getPath() + " integration completed");
 			System.out.println("\nIntegration completed\n***\n");
 		}
 	}
@@ -82,18 +100,18 @@ public class GMIM_Pipeline {
 	public static void parseMultOptions(String[] args) {
 		Options options = new Options();
 
-		Option infile = new Option("i", "input", true, "[req] input file paths, must be bed files");
-		infile.setRequired(true);
+		Option infile = new Option("i", "input", true, "[req] input file paths, must be bed files (or use --matrix)");
+		infile.setRequired(false);
 		infile.setArgs(Option.UNLIMITED_VALUES);
 		options.addOption(infile);
 
-		Option outfilename = new Option("o", "output", true, "[opt] output file base names, must have one for each input file");
+		Option outfilename = new Option("o", "output", true, "[opt] output file base names, must have one for each input file (or matrix sample)");
 		outfilename.setRequired(false);
 		outfilename.setArgs(Option.UNLIMITED_VALUES);
 		options.addOption(outfilename);
 
-		Option intfilename = new Option("int", "integrate", true, "[req] integration folder/file base name");
-		intfilename.setRequired(true);
+		Option intfilename = new Option("int", "integrate", true, "[req] integration folder/file base name (optional with --matrix)");
+		intfilename.setRequired(false);
 		intfilename.setArgs(1);
 		options.addOption(intfilename);
 
@@ -112,6 +130,67 @@ public class GMIM_Pipeline {
 		defZero.setArgs(1);
 		options.addOption(defZero);
 
+		Option chunkSize = new Option("c", "chunkSize", true, "[opt] number of intervals per parallel chunk of a chromosome (computing and integrating)");
+		chunkSize.setRequired(false);
+		options.addOption(chunkSize);
+
+		Option threads = new Option("t", "threads", true, "[opt] number of threads, default: number of processors");
+		threads.setRequired(false);
+		options.addOption(threads);
+
+		Option fusedOpt = new Option("f", "fused", false, "[opt] compute and integrate all samples in one pass, without writing per-sample tracks");
+		fusedOpt.setRequired(false);
+		options.addOption(fusedOpt);
+
+		Option tracks = new Option("s", "sampleTracks", false, "[opt] with --fused, also write each sample's cMBF tracks");
+		tracks.setRequired(false);
+		options.addOption(tracks);
+
+		Option binary = new Option("b", "binary", false, "[opt] write the cMBF tracks in the binary " + BinaryTrackWriter.EXTENSION + " format instead of bedGraph");
+		binary.setRequired(false);
+		options.addOption(binary);
+
+		Option logOpt = new Option("l", "logSpace", false, "[opt] integrate by adding the logs of the cMBFs, so the product does not underflow partway through many samples");
+		logOpt.setRequired(false);
+		options.addOption(logOpt);
+
+		Option openFiles = new Option("of", "openFiles", true, "[opt] number of tracks each integration reads at once, more are integrated in groups, default: " + IntegrationConfig.DEFAULT_MAX_OPEN_FILES);
+		openFiles.setRequired(false);
+		options.addOption(openFiles);
+
+		Option union = new Option("u", "union", false, "[opt] integrate over the union of the samples' intervals, which may differ in size or have gaps (not with --fused)");
+		union.setRequired(false);
+		options.addOption(union);
+
+		Option missing = new Option("mv", "missingValue", true, "[opt] with --union, cMBF of a sample where it has no interval, default: 0");
+		missing.setRequired(false);
+		options.addOption(missing);
+
+		Option genomecov = new Option("g", "genomecov", true, "[opt] inputs are run-length intervals (bedtools genomecov -bg), read as bins of the given size (bp)");
+		genomecov.setRequired(false);
+		options.addOption(genomecov);
+
+		Option depth = new Option("d", "depth", true, "[opt] inputs are per-base depth (samtools depth), summed into bins of the given size (bp)");
+		depth.setRequired(false);
+		options.addOption(depth);
+
+		Option align = new Option("a", "alignments", true, "[opt] inputs are coordinate-sorted alignments (BAM, SAM), reads counted in bins of the given size (bp)");
+		align.setRequired(false);
+		options.addOption(align);
+
+		Option alignCov = new Option("cov", "coverage", false, "[opt] with --alignments, count aligned bases per bin instead of reads");
+		alignCov.setRequired(false);
+		options.addOption(alignCov);
+
+		Option matrixOpt = new Option("mx", "matrix", true, "[opt] input is one count matrix (chr start end, then a count per sample, as from bedtools multicov) instead of --input files; every sample is computed (and integrated) in one pass");
+		matrixOpt.setRequired(false);
+		options.addOption(matrixOpt);
+
+		Option sort = new Option("so", "sort", true, "[opt] sort unsorted bed inputs first, each into [input without .bed].sorted.bed (reused while newer than the input, otherwise overwritten), using at most the given memory (MB), default: half the heap");
+		sort.setOptionalArg(true);
+		sort.setRequired(false);
+		options.addOption(sort);
+
 		Option help = new Option("h", "help", false, "");
 		options.addOption(help);
 
@@ -133,28 +212,52 @@ public class GMIM_Pipeline {
 		if (cmd.hasOption("h")) {
 			formatter.printHelp("GMIM", header, options, footer, false);
 		}
+		matrix = cmd.hasOption("mx");
+		if (matrix == cmd.hasOption("i") || (!matrix && !cmd.hasOption("int"))) {
+			System.out.println(matrix ? "Give either input files or a matrix, not both" : "Missing required options: i, int");
+			formatter.printHelp("GMIM", header, options, footer, false);
+			System.exit(1);
+		}
 
 		//default options
-		windowbpSize = 10000;
-		medianMult = 1;
-		minRC = 0.5;
+		int windowbpSize = 10000;
+		double medianMult = 1;
+		double minRC = 0.5;
+		int chunkBins = Driver.DEFAULT_CHUNK_BINS;
 
 		//file options
-		inBedFileNames = cmd.getOptionValues("i");
-		for (String inBed : inBedFileNames) {
-			if (!inBed.endsWith(".bed")) {
+		String[] outBaseNames;
+		String[] sampleNames = null;
+		if (matrix) {
+			inBedFileNames = new String[] { cmd.getOptionValue("mx") };
+			try {
+				sampleNames = MatrixIntegration.readSampleNames(new File(inBedFileNames[0]));
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+				System.exit(1);
+			}
+		}
+		else {
+			inBedFileNames = cmd.getOptionValues("i");
+		}
+		for (String inBed : matrix ? new String[0] : inBedFileNames) {
+			if (!inBed.endsWith(".bed") && !cmd.hasOption("d") && !cmd.hasOption("a")) {
 				throw new IllegalArgumentException("Must be a .bed");
 			}
 		}
+		int nSamples = matrix ? sampleNames.length : inBedFileNames.length;
 		if (cmd.hasOption("o")) {
 			outBaseNames = cmd.getOptionValues("o");
-			if (inBedFileNames.length != outBaseNames.length) {
+			if (nSamples != outBaseNames.length) {
 				throw new IllegalArgumentException("Number of input files and output base names do not match");
 			}
 			for (String outName : outBaseNames) {
 				if (outName.contains("/")) throw new IllegalArgumentException("Cannot use a path as an output base name");
 			}
 		}
+		else if (matrix) { //the matrix's header names the samples
+			outBaseNames = sampleNames;
+		}
 		else {
 			outBaseNames = new String[inBedFileNames.length];
 			Arrays.fill(outBaseNames, "out");
@@ -183,97 +286,338 @@ public class GMIM_Pipeline {
 			}
 			minRC = mrc;
 		}
+		if (cmd.hasOption("c")) {
+			int cb = Integer.parseInt(cmd.getOptionValue("c"));
+			if (cb <= 0) {
+				System.err.println("Chunk size must be positive.");
+				System.exit(0);
+			}
+			chunkBins = cb;
+		}
+		if (cmd.hasOption("t")) {
+			int nt = Integer.parseInt(cmd.getOptionValue("t"));
+			if (nt <= 0) {
+				System.err.println("Number of threads must be positive.");
+				System.exit(0);
+			}
+			TaskScheduler.setThreads(nt);
+		}
+		int runBinSize = 0;
+		if (cmd.hasOption("g")) {
+			int bs = Integer.parseInt(cmd.getOptionValue("g"));
+			if (bs <= 0) {
+				System.err.println("Bin size must be positive.");
+				System.exit(0);
+			}
+			runBinSize = bs;
+		}
+		int depthBinSize = 0;
+		if (cmd.hasOption("d")) {
+			int bs = Integer.parseInt(cmd.getOptionValue("d"));
+			if (bs <= 0) {
+				System.err.println("Bin size must be positive.");
+				System.exit(0);
+			}
+			depthBinSize = bs;
+		}
+		int alignBinSize = 0;
+		if (cmd.hasOption("a")) {
+			int bs = Integer.parseInt(cmd.getOptionValue("a"));
+			if (bs <= 0) {
+				System.err.println("Bin size must be positive.");
+				System.exit(0);
+			}
+			alignBinSize = bs;
+		}
+		if ((runBinSize > 0 ? 1 : 0) + (depthBinSize > 0 ? 1 : 0) + (alignBinSize > 0 ? 1 : 0) > 1) {
+			System.err.println("Input can only be one of run-length (-g), per-base (-d) or alignments (-a).");
+			System.exit(0);
+		}
 
-		//set static parameters
-		Driver.windowbpSize = windowbpSize;
-		Driver.intervalSize = intervalSize;
-		Driver.medianMult = medianMult;
-		Driver.minRC = minRC;
-
-		IntStats_WGSep.setMinRC(minRC);
-		ProcessChromFile.setWinSize(windowbpSize);
-		ProcessChromFile.setIntSize(intervalSize);
-		ProcessChromFile.setMedMult(medianMult);
+		fused = cmd.hasOption("f");
+		writeTracks = cmd.hasOption("s");
+		int maxOpenFiles = IntegrationConfig.DEFAULT_MAX_OPEN_FILES;
+		if (cmd.hasOption("of")) {
+			int mof = Integer.parseInt(cmd.getOptionValue("of"));
+			if (mof < 2) {
+				System.err.println("Number of open files must be at least 2.");
+				System.exit(0);
+			}
+			maxOpenFiles = mof;
+		}
+		double missingValue = 0;
+		if (cmd.hasOption("mv")) {
+			double mv = Double.parseDouble(cmd.getOptionValue("mv"));
+			if (!(mv >= 0 && mv <= 1)) {
+				System.err.println("Missing value must be from 0 to 1.");
+				System.exit(0);
+			}
+			missingValue = mv;
+		}
+		if ((fused || matrix) && cmd.hasOption("u")) {
+			System.err.println("Union integration cannot be fused.");
+			System.exit(0);
+		}
+		if (matrix && (runBinSize > 0 || depthBinSize > 0 || alignBinSize > 0)) {
+			System.err.println("A count matrix is read as it is (not with -g, -d or -a).");
+			System.exit(0);
+		}
+		if (cmd.hasOption("so")) {
+			if (alignBinSize > 0) {
+				System.err.println("Alignments cannot be sorted, they must be sorted by coordinate.");
+				System.exit(0);
+			}
+			long sortMemory = Driver.sortMemory(cmd.getOptionValue("so"));
+			for (int i = 0; i < inBedFileNames.length; i++) {
+				inBedFileNames[i] = Driver.sortInput(inBedFileNames[i], sortMemory);
+			}
+		}
+		integConfig = new IntegrationConfig.Builder().logSpace(cmd.hasOption("l")).maxOpenFiles(maxOpenFiles)
+				.union(cmd.hasOption("u")).missingValue(missingValue).chunkBins(chunkBins).build();
+
+		//one configuration per sample
+		sampleConfigs = new RunConfig[nSamples];
+		for (int i = 0; i < nSamples; i++) {
+			String inBed = inBedFileNames[matrix ? 0 : i];
+			sampleConfigs[i] = new RunConfig.Builder(inBed).outBaseName(outBaseNames[i]).windowbpSize(windowbpSize)
+					.medianMult(medianMult).minRC(minRC).chunkBins(chunkBins).binaryTracks(cmd.hasOption("b"))
+					.runBinSize(runBinSize).depthBinSize(depthBinSize).alignBinSize(alignBinSize)
+					.alignCoverage(cmd.hasOption("cov")).matrixColumns(matrix ? nSamples : 0).build();
+			if (sampleConfigs[i].isStreamInput()) { //the chromosomes are read by range, by sample and by integration
+				throw new IllegalArgumentException("Inputs must be files, not standard input or a pipe: " + inBed);
+			}
+		}
 	}
 
-	public static void integrateAll(ArrayList<ArrayList<File>> allOutFiles) throws InterruptedException {
-		//make directory for integration files
-		File integDir = new File(integBaseName);
-		boolean folderMade = integDir.mkdirs();
+	/**
+	 * Chains an integration onto each chromosome of the first sample that every sample has, to run as soon as
+	 * all samples have computed it
+	 * @return the integrations' output files, in the first sample's order
+	 */
+	private static ArrayList<CompletableFuture<File>> submitIntegrations(Driver[] drivers,
+			ArrayList<ArrayList<CompletableFuture<File>>> sampleFutures, String spacer) {
+		int nSamples = drivers.length;
+		ArrayList<HashMap<String, CompletableFuture<File>>> futuresByName = new ArrayList<HashMap<String, CompletableFuture<File>>>();
+		for (int i = 0; i < nSamples; i++) {
+			HashMap<String, CompletableFuture<File>> byName = new HashMap<String, CompletableFuture<File>>();
+			ArrayList<ChromRange> ranges = drivers[i].getChromRanges();
+			for (int c = 0; c < ranges.size(); c++) {
+				byName.put(ranges.get(c).getChromNum(), sampleFutures.get(i).get(c));
+			}
+			futuresByName.add(byName);
+		}
 
-		String spacer = "/";
+		ArrayList<CompletableFuture<File>> integFutures = new ArrayList<CompletableFuture<File>>();
+		for (ChromRange cr0 : drivers[0].getChromRanges()) {
+			String chrName = cr0.getChromNum();
+			final ArrayList<CompletableFuture<File>> matchChrFutures = new ArrayList<CompletableFuture<File>>();
+			for (int i = 0; i < nSamples; i++) {
+				CompletableFuture<File> f = futuresByName.get(i).get(chrName);
+				if (f == null) break;
+				matchChrFutures.add(f);
+			}
 
-		if (!integDir.exists() && !folderMade) {
-			spacer = "_";
+			//found all available matching chromosomes
+			if (matchChrFutures.size() == nSamples) { //all samples have the chromosome, integrate when done
+				final String integChrFileName = integBaseName + spacer + "integ_" + chrName + ".bedGraph";
+				CompletableFuture<Void> all = CompletableFuture.allOf(matchChrFutures.toArray(new CompletableFuture<?>[nSamples]));
+				integFutures.add(all.thenCompose(new Function<Void, CompletableFuture<File>>() {
+					@Override
+					public CompletableFuture<File> apply(Void v) {
+						ArrayList<File> matchChrFiles = new ArrayList<File>();
+						for (CompletableFuture<File> f : matchChrFutures) {
+							matchChrFiles.add(f.join());
+						}
+						return TaskScheduler.submit(new FileIntegration(matchChrFiles, integChrFileName, integConfig));
+					}
+				}));
+			}
+			//else skip integration
 		}
+		return integFutures;
+	}
 
-		//for each file in the first ArrayList, check that there are corresponding files
-		//in the other ArrayLists and integrate them in parallel
-
-		ArrayList<File> ra0 = allOutFiles.get(0);
+	/**
+	 * Computes and integrates the chromosomes present in every sample, in one pass per chromosome
+	 * (see FusedIntegration); the whole genome file is the chromosomes' outputs concatenated
+	 */
+	public static void integrateFused() throws InterruptedException {
+		int nSamples = sampleConfigs.length;
+		Driver[] drivers = new Driver[nSamples];
+		ArrayList<ArrayList<ChromRange>> allRanges = new ArrayList<ArrayList<ChromRange>>();
+		ArrayList<HashMap<String, ChromRange>> rangesByName = new ArrayList<HashMap<String, ChromRange>>();
+
+		for (int i = 0; i < nSamples; i++) {
+			drivers[i] = new Driver(sampleConfigs[i]);
+			try {
+				ArrayList<ChromRange> ranges = drivers[i].indexChroms(sampleConfigs[i].getInBed());
+				if (ranges == null) {
+					System.err.println("Fused integration needs indexed BAM files: " + sampleConfigs[i].getInBed());
+					System.exit(1);
+				}
+				HashMap<String, ChromRange> byName = new HashMap<String, ChromRange>();
+				for (ChromRange cr : ranges) {
+					byName.put(cr.getChromNum(), cr);
+				}
+				allRanges.add(ranges);
+				rangesByName.add(byName);
+			} catch (IOException e) {
+				System.out.println(e.getMessage());
+				System.exit(1);
+			}
+		}
 
-		int nThreads = Runtime.getRuntime().availableProcessors();
-		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		String spacer = makeIntegDir();
 
-		ArrayList<Future<File>> futureList = new ArrayList<Future<File>>();
-		ArrayList<File> outFileList = new ArrayList<File>();
+		//chromosomes of the first sample that every sample has, in its order
+		ArrayList<FusedIntegration> workers = new ArrayList<FusedIntegration>();
+		for (ChromRange cr0 : allRanges.get(0)) {
+			ChromRange[] chromRanges = new ChromRange[nSamples];
+			boolean inAll = true;
+			for (int i = 0; i < nSamples && inAll; i++) {
+				chromRanges[i] = rangesByName.get(i).get(cr0.getChromNum());
+				inAll = chromRanges[i] != null;
+			}
+			if (inAll) {
+				String integChrFileName = integBaseName + spacer + "integ_" + cr0.getChromNum() + ".bedGraph";
+				workers.add(new FusedIntegration(sampleConfigs, chromRanges, integChrFileName, writeTracks, integConfig.isLogSpace()));
+			}
+			//else skip integration
+		}
 
-		for (File f : ra0) {
-			//check each file in first ArrayList
-			String chrName = parseBGChrom(f);
+		//submit largest first, collect in order
+		ArrayList<FusedIntegration> order = new ArrayList<FusedIntegration>(workers);
+		Collections.sort(order, new SizedTask.WorkEstimateSorter());
+		ExecutorService executor = TaskScheduler.pool();
+		IdentityHashMap<FusedIntegration, Future<File>> submitted = new IdentityHashMap<FusedIntegration, Future<File>>();
+		for (FusedIntegration worker : order) {
+			submitted.put(worker, executor.submit(worker));
+		}
 
-			ArrayList<File> matchChrFiles = new ArrayList<File>();
-			matchChrFiles.add(f);
+		ArrayList<File> outFileList = new ArrayList<File>();
+		for (FusedIntegration worker : workers) {
+			try {
+				File f = submitted.get(worker).get();
+				System.out.println(f.getPath() + " integration completed");
+				outFileList.add(f);
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
 
-			//search other ArrayLists for same chromosome file
-			for (int i = 1; i < allOutFiles.size(); i++) { //for each other ArrayList
-				ArrayList<File> ra = allOutFiles.get(i);
+		try {
+			File wChrFile = FileIntegration.concatenate(outFileList, integBaseName + spacer + "integ_chrAll.bedGraph");
+			System.out.println(wChrFile.getPath() + " integration completed");
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
 
-				for (File fother : ra) {
-					String chrOther = parseBGChrom(fother);
-					if (chrName.equals(chrOther)) {
-						matchChrFiles.add(fother);
-						break;
+		HashSet<String> integrated = new HashSet<String>();
+		for (FusedIntegration worker : workers) {
+			integrated.add(worker.getChromRanges()[0].getChromNum());
+		}
+		for (int i = 0; i < nSamples; i++) {
+			if (writeTracks) { //whole genome track of the chromosomes computed, in the sample's order
+				ArrayList<File> trackFiles = new ArrayList<File>();
+				for (ChromRange cr : allRanges.get(i)) {
+					if (integrated.contains(cr.getChromNum())) {
+						trackFiles.add(sampleConfigs[i].getTrackFile(cr.getChromNum()));
 					}
 				}
-			} 
-
-			//found all available matching chromosome arrays
-			if (matchChrFiles.size() == allOutFiles.size()) { //all samples have a chromosome file, integrate
-				String integChrFileName = integBaseName + spacer + "integ_" + chrName + ".bedGraph";
-				Callable<File> worker = new FileIntegration(matchChrFiles, integChrFileName);
-				Future<File> submit = executor.submit(worker);
-				futureList.add(submit);
+				try {
+					drivers[i].mergeWholeChrFile(trackFiles);
+				} catch (FileNotFoundException e) {
+					System.err.println(e.getMessage());
+				}
 			}
-			//else skip integration
+			drivers[i].saveChromIndex(allRanges.get(i));
+		}
+	}
+
+	/**
+	 * Computes every sample of the count matrix, and integrates them if asked for, one chromosome per task
+	 * (see MatrixIntegration); the whole genome files are the chromosomes' outputs concatenated
+	 */
+	public static void integrateMatrix() throws InterruptedException {
+		int nSamples = sampleConfigs.length;
+		Driver[] drivers = new Driver[nSamples];
+		for (int i = 0; i < nSamples; i++) {
+			drivers[i] = new Driver(sampleConfigs[i]);
+		}
+		ArrayList<ChromRange> ranges = null;
+		try {
+			ranges = drivers[0].indexChroms(inBedFileNames[0]);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+
+		String spacer = integBaseName != null ? makeIntegDir() : null;
+		ArrayList<MatrixIntegration> workers = new ArrayList<MatrixIntegration>();
+		for (ChromRange cr : ranges) {
+			String integChrFileName = integBaseName == null ? null : integBaseName + spacer + "integ_" + cr.getChromNum() + ".bedGraph";
+			workers.add(new MatrixIntegration(sampleConfigs, cr, integChrFileName, integConfig.isLogSpace()));
 		}
 
-		for (Future<File> future : futureList) {
+		//submit largest first, collect in order
+		ArrayList<MatrixIntegration> order = new ArrayList<MatrixIntegration>(workers);
+		Collections.sort(order, new SizedTask.WorkEstimateSorter());
+		ExecutorService executor = TaskScheduler.pool();
+		IdentityHashMap<MatrixIntegration, Future<File>> submitted = new IdentityHashMap<MatrixIntegration, Future<File>>();
+		for (MatrixIntegration worker : order) {
+			submitted.put(worker, executor.submit(worker));
+		}
+
+		ArrayList<File> outFileList = new ArrayList<File>();
+		for (MatrixIntegration worker : workers) {
 			try {
-				File f = future.get();
-				System.out.println(f.getPath() + " integration completed");
-				outFileList.add(f);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+				File f = submitted.get(worker).get();
+				System.out.println(worker.getChromRange().getChromNum() + " of " + nSamples + " samples completed");
+				if (f != null) {
+					outFileList.add(f);
+				}
 			} catch (ExecutionException e) {
 				e.printStackTrace();
 			}
 		}
 
-		executor.shutdown();
-		executor.awaitTermination(12, TimeUnit.HOURS);
+		if (integBaseName != null) {
+			try {
+				File wChrFile = FileIntegration.concatenate(outFileList, integBaseName + spacer + "integ_chrAll.bedGraph");
+				System.out.println(wChrFile.getPath() + " integration completed");
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+			}
+		}
 
-		return;
+		for (int i = 0; i < nSamples; i++) { //whole genome track of each sample
+			ArrayList<File> trackFiles = new ArrayList<File>();
+			for (MatrixIntegration worker : workers) {
+				trackFiles.add(worker.getTrackFile(i));
+			}
+			try {
+				drivers[i].mergeWholeChrFile(trackFiles);
+			} catch (FileNotFoundException e) {
+				System.err.println(e.getMessage());
+			}
+		}
+		drivers[0].saveChromIndex(ranges);
 	}
 
 	/**
-	 * Given a file f, parse the file name for the chromosome name
-	 * @param f
-	 * @return chromosome name - (i.e. chr17)
+	 * Makes the integration output directory
+	 * @return separator between it and the file names ("_" if it could not be made)
 	 */
-	private static String parseBGChrom(File f) {
-		String filename = f.getName();
-		return filename.substring(filename.lastIndexOf("_chr") + 1, filename.lastIndexOf(".bedGraph"));
+	private static String makeIntegDir() {
+		File integDir = new File(integBaseName);
+		boolean folderMade = integDir.mkdirs();
+
+		String spacer = "/";
+
+		if (!integDir.exists() && !folderMade) {
+			spacer = "_";
+		}
+		return spacer;
 	}
 
 }
@@ -0,0 +1,244 @@
+
+/**
+ * Running median of the read counts in a sliding window
+ * Values enter at the back and leave from the front (same order as the window), so each
+ * insert/remove is O(log W) and the median can be read without re-sorting the window.
+ * Kept as two indexed heaps: the lower half in a max-heap, the upper half in a min-heap.
+ */
+class IntMedian_WGSep {
+
+	/** ring of the values currently in the window, in insertion order */
+	private double[] vals;
+	/** true if the ring slot is stored in the lower heap */
+	private boolean[] inLower;
+	/** position of each ring slot in its heap */
+	private int[] heapPos;
+
+	/** max-heap of ring slots holding the lower half */
+	private int[] lower;
+	/** min-heap of ring slots holding the upper half */
+	private int[] upper;
+	private int lowerSize;
+	private int upperSize;
+
+	/** ring slot of the oldest value */
+	private int head;
+	private int size;
+
+	/**
+	 * @param capacity - maximum number of values held at once (window size in lines)
+	 */
+	public IntMedian_WGSep(int capacity) {
+		vals = new double[capacity];
+		inLower = new boolean[capacity];
+		heapPos = new int[capacity];
+		lower = new int[capacity];
+		upper = new int[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		head = 0;
+		size = 0;
+		lowerSize = 0;
+		upperSize = 0;
+	}
+
+	/** Adds a value at the back of the window */
+	public void add(double v) {
+		if (size == vals.length) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		int slot = (head + size) % vals.length;
+		size++;
+		vals[slot] = v;
+
+		if (lowerSize == 0 || v <= vals[lower[0]]) {
+			inLower[slot] = true;
+			lower[lowerSize] = slot;
+			heapPos[slot] = lowerSize;
+			lowerSize++;
+			siftUp(lower, lowerSize - 1, true);
+		}
+		else {
+			inLower[slot] = false;
+			upper[upperSize] = slot;
+			heapPos[slot] = upperSize;
+			upperSize++;
+			siftUp(upper, upperSize - 1, false);
+		}
+
+		rebalance();
+	}
+
+	/** Removes the oldest value in the window */
+	public void removeOldest() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		int slot = head;
+		head = (head + 1) % vals.length;
+		size--;
+
+		if (inLower[slot]) {
+			lowerSize = removeAt(lower, lowerSize, heapPos[slot], true);
+		}
+		else {
+			upperSize = removeAt(upper, upperSize, heapPos[slot], false);
+		}
+
+		rebalance();
+	}
+
+	/**
+	 * Removes the oldest value and adds v at the back, as removeOldest() then add(v)
+	 * The value's heap entry is reused, so where the window is uniform (v equals the value leaving)
+	 * the heaps do not change at all
+	 */
+	public void replaceOldest(double v) {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		int slot = head;
+		head = (head + 1) % vals.length;
+		int newest = (head + size - 1) % vals.length;
+		if (newest != slot) { //window not full: the oldest value's heap entry moves to the newest slot
+			vals[newest] = vals[slot];
+			inLower[newest] = inLower[slot];
+			heapPos[newest] = heapPos[slot];
+			if (inLower[slot]) {
+				lower[heapPos[slot]] = newest;
+			}
+			else {
+				upper[heapPos[slot]] = newest;
+			}
+			slot = newest;
+		}
+		if (vals[slot] == v) return;
+		vals[slot] = v;
+
+		if (inLower[slot]) {
+			if (upperSize == 0 || v <= vals[upper[0]]) {
+				siftUp(lower, heapPos[slot], true);
+				siftDown(lower, lowerSize, heapPos[slot], true);
+				return;
+			}
+			lowerSize = removeAt(lower, lowerSize, heapPos[slot], true);
+			inLower[slot] = false;
+			upper[upperSize] = slot;
+			heapPos[slot] = upperSize;
+			upperSize++;
+			siftUp(upper, upperSize - 1, false);
+		}
+		else {
+			if (v >= vals[lower[0]]) {
+				siftUp(upper, heapPos[slot], false);
+				siftDown(upper, upperSize, heapPos[slot], false);
+				return;
+			}
+			upperSize = removeAt(upper, upperSize, heapPos[slot], false);
+			inLower[slot] = true;
+			lower[lowerSize] = slot;
+			heapPos[slot] = lowerSize;
+			lowerSize++;
+			siftUp(lower, lowerSize - 1, true);
+		}
+
+		rebalance();
+	}
+
+	/**
+	 * Median of the values in the window
+	 * If the count is even, the middle two values are averaged
+	 */
+	public double median() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		if (size % 2 == 0) {
+			return (vals[lower[0]] + vals[upper[0]]) / 2;
+		}
+		return vals[lower[0]];
+	}
+
+	/** keep the lower heap holding ceil(size/2) values */
+	private void rebalance() {
+		while (lowerSize > upperSize + 1) {
+			int slot = lower[0];
+			lowerSize = removeAt(lower, lowerSize, 0, true);
+			inLower[slot] = false;
+			upper[upperSize] = slot;
+			heapPos[slot] = upperSize;
+			upperSize++;
+			siftUp(upper, upperSize - 1, false);
+		}
+		while (upperSize > lowerSize) {
+			int slot = upper[0];
+			upperSize = removeAt(upper, upperSize, 0, false);
+			inLower[slot] = true;
+			lower[lowerSize] = slot;
+			heapPos[slot] = lowerSize;
+			lowerSize++;
+			siftUp(lower, lowerSize - 1, true);
+		}
+	}
+
+	/** @return new heap size */
+	private int removeAt(int[] heap, int heapSize, int i, boolean max) {
+		heapSize--;
+		if (i != heapSize) {
+			heap[i] = heap[heapSize];
+			heapPos[heap[i]] = i;
+			siftDown(heap, heapSize, i, max);
+			siftUp(heap, i, max);
+		}
+		return heapSize;
+	}
+
+	/** true if slot a belongs above slot b in the heap */
+	private boolean above(int a, int b, boolean max) {
+		return max ? vals[a] > vals[b] : vals[a] < vals[b];
+	}
+
+	private void siftUp(int[] heap, int i, boolean max) {
+		int slot = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!above(slot, heap[parent], max)) break;
+			heap[i] = heap[parent];
+			heapPos[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = slot;
+		heapPos[slot] = i;
+	}
+
+	private void siftDown(int[] heap, int heapSize, int i, boolean max) {
+		int slot = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && above(heap[child + 1], heap[child], max)) {
+				child++;
+			}
+			if (!above(heap[child], slot, max)) break;
+			heap[i] = heap[child];
+			heapPos[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = slot;
+		heapPos[slot] = i;
+	}
+
+	@Override
+	public String toString() {
+		return "size:" + size + ", lower:" + lowerSize + ", upper:" + upperSize;
+	}
+}
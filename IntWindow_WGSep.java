@@ -1,22 +1,32 @@
 
-import java.util.ArrayList;
 
 public class IntWindow_WGSep {
-	private static int intSize;
-	private static double medianMult;
+	private int intSize;
+	private double medianMult;
 	
 	/** window size in terms of lines **/
 	private int windowSize;
 	
 	private String chromNum;
 	private int absStart;
+	/** start of the chromosome's last interval, if known in advance */
+	private int absLastStart;
 	private int start;
 	private int pos;
 	private int end;
 	private int relIndex;
 	private boolean endOfChrom;
 
-	protected ArrayList<IntStats_WGSep> winRA;
+	/** circular buffer of the window's intervals, oldest at head */
+	private int[] starts;
+	private int[] ends;
+	private double[] readCounts;
+	private int head;
+	private int count;
+	/** running median of the read counts in the window */
+	private IntMedian_WGSep median;
+	/** intervals that have left the window but not yet the median, which takes them out as the next ones come in */
+	private int pendingRemovals;
 
 	/**
 	 * @param wS - window size in terms of lines
@@ -26,18 +36,37 @@ public class IntWindow_WGSep {
 		chromNum = cN;
 		intSize = iS;
 		windowSize = wS / intSize;
-		winRA = new ArrayList<IntStats_WGSep>(windowSize);
+		starts = new int[windowSize];
+		ends = new int[windowSize];
+		readCounts = new double[windowSize];
+		head = 0;
+		count = 0;
+		median = new IntMedian_WGSep(windowSize);
 		
 		medianMult = mM;
 		endOfChrom = false;
 		pos = p;
 		
 		absStart = p;
+		absLastStart = Integer.MAX_VALUE;
 		start = p;
 		relIndex = 0;
 		//calcStartEnd();
 	}
 
+	/**
+	 * Window centered on p, for part of a chromosome whose first and last intervals are known
+	 * Near the chromosome ends the window is held in place the same way as when reading the whole chromosome
+	 * @param cS - start of the chromosome's first interval
+	 * @param cLS - start of the chromosome's last interval
+	 */
+	public IntWindow_WGSep(String cN, int wS, int iS, double mM, int cS, int cLS, int p) {
+		this(cN, wS, iS, mM, cS);
+		absLastStart = cLS;
+		pos = p;
+		calcStartEnd();
+	}
+
 	private void calcStartEnd() {
 		if (!endOfChrom) { //don't change window start/end if reached end of file
 			if (windowSize % 2 != 0) { //if window size odd
@@ -48,6 +77,12 @@ public class IntWindow_WGSep {
 				start = (pos - (int) (Math.floor((windowSize - 1)/2) * intSize));
 				end = (pos + (int) (Math.ceil((windowSize + 1)/2) * intSize));
 			}
+
+			int lastWinStart = absLastStart - intSize * (windowSize - 1);
+			if (start > lastWinStart) { //same as stopping at the end of the file
+				end = (end - start) + lastWinStart;
+				start = lastWinStart;
+			}
 		}
 		
 		if (start < absStart) {
@@ -64,8 +99,8 @@ public class IntWindow_WGSep {
 	
 	//Used for when window is not filled but reached end of file - assumingly 0 - [last line's start]
 	public int setSmallerWindowSize() {
-		windowSize = winRA.size();
-		end = winRA.get(winRA.size() - 1).getEnd();
+		windowSize = count;
+		end = ends[slot(count - 1)];
 		return windowSize;
 	}
 
@@ -77,24 +112,30 @@ public class IntWindow_WGSep {
 		return chromNum;
 	}
 	
+	/** buffer slot of the i-th oldest interval in the window */
+	private int slot(int i) {
+		return (head + i) % starts.length;
+	}
+
+	/** start of the window's first interval */
+	public int getWindowStart() {
+		return start;
+	}
+
 	public int getIndexStart() {
-		return winRA.get(relIndex).getStart();
+		return starts[slot(relIndex)];
 	}
 
 	public int getIndexEnd() {
-		return winRA.get(relIndex).getEnd();
+		return ends[slot(relIndex)];
 	}
 
 	public double getIndexReadCount() {
-		return winRA.get(relIndex).getReadCount();
-	}
-
-	public double getIndexcMBF() {
-		return winRA.get(relIndex).getcMBF();
+		return readCounts[slot(relIndex)];
 	}
 	
 	public int getLastStartIndex() {
-		return winRA.get(winRA.size() - 1).getStart();
+		return starts[slot(count - 1)];
 	}
 
 	/**
@@ -102,22 +143,34 @@ public class IntWindow_WGSep {
 	 * @return
 	 */
 	public int toFill() {
-		return windowSize - winRA.size();		
+		return windowSize - count;		
 	}
 
 	public boolean full() {
-		return winRA.size() == windowSize;
+		return count == windowSize;
 	}
 
-	public boolean insert(IntStats_WGSep ps) {
-//		if (!ps.getChromNum().equals(chromNum)) {
-//			throw new IllegalArgumentException("Cannot add a position from a different chromosome");
-//		}
-//		else 
-		if (winRA.size() >= windowSize) { //full
+	/**
+	 * Adds an interval to the end of the window
+	 * @param rc - read count, with zero already replaced by minRC
+	 */
+	public boolean insert(int s, int e, double rc) {
+		if (count >= windowSize) { //full
 			throw new IndexOutOfBoundsException();
 		}
-		return winRA.add(ps);
+		int i = slot(count);
+		starts[i] = s;
+		ends[i] = e;
+		readCounts[i] = rc;
+		count++;
+		if (pendingRemovals > 0) {
+			median.replaceOldest(rc);
+			pendingRemovals--;
+		}
+		else {
+			median.add(rc);
+		}
+		return true;
 	}
 
 	@SuppressWarnings("unused")
@@ -125,26 +178,18 @@ public class IntWindow_WGSep {
 		double sum = 0;
 		int count = 0;
 		for (int i = 0; i < windowSize; i++) {
-			sum += winRA.get(i).getReadCount();
+			sum += readCounts[slot(i)];
 			count++;
 		}
 		return sum / count;
 	}
 
 	private double calcMedian() {
-		@SuppressWarnings("unchecked")
-		ArrayList<IntStats_WGSep> sortedRA = (ArrayList<IntStats_WGSep>) winRA.clone();
-		sortedRA.sort(new ISWGSepReadCountSorter());
-		int middle = 0;
-		if (windowSize % 2 == 0) { //if even, average middle two entries
-			middle = windowSize/2 - 1;
-			return (sortedRA.get(middle).getReadCount() + sortedRA.get(middle + 1).getReadCount()) / 2;
-		}
-		else {
-			middle = windowSize/2;
-			return sortedRA.get(middle).getReadCount(); //else odd, return middle entry
+		while (pendingRemovals > 0) {
+			median.removeOldest();
+			pendingRemovals--;
 		}
-		
+		return median.median(); //middle entry, or average of middle two entries if even
 	}
 
 	public double calccMBF() throws Exception{ //currently uses mean
@@ -156,15 +201,20 @@ public class IntWindow_WGSep {
 		
 		double Z = getIndexReadCount() / noiseEst;
 		double cmbf = 1 - Math.exp(-1 * (Z*Z) / 2);
-		winRA.get(relIndex).setcMBF(cmbf);
+		if (!(cmbf >= 0 && cmbf <= 1)) {
+			throw new Exception("cMBF cannot be outside the range of 0 to 1: " + cmbf + "\n"
+					+ chromNum + "\t" + getIndexStart() + "\t" + getIndexEnd() + "\t" + getIndexReadCount());
+		}
 		return cmbf;
 	}
 
 	public void incrCenter() {
 		pos += intSize;
 		calcStartEnd();
-		if (!endOfChrom && winRA.get(0).getStart() < start) { //remove first element in RA if moving out of range and haven't reached end of file
-			winRA.remove(0);
+		if (!endOfChrom && starts[head] < start) { //remove first element in window if moving out of range and haven't reached end of file
+			head = slot(1);
+			count--;
+			pendingRemovals++; //taken out of the median with the next insert
 		}
 	}
 
@@ -172,7 +222,13 @@ public class IntWindow_WGSep {
 
 	@Override
 	public String toString() {
-		return "windowSize:" + windowSize + ", pos:" + pos + ", start:" + start + ", end:" + end + ", relIndex" + relIndex + "\nwinRA:" + winRA.toString();
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) sb.append(", ");
+			sb.append("[start:" + starts[slot(i)] + ", end:" + ends[slot(i)] + ", readCount:" + readCounts[slot(i)] + "]");
+		}
+		sb.append("]");
+		return "windowSize:" + windowSize + ", pos:" + pos + ", start:" + start + ", end:" + end + ", relIndex" + relIndex + "\nwindow:" + sb.toString();
 	}
 
 }
@@ -0,0 +1,103 @@
+
+/**
+ * Parameters of an integration (how the tracks are combined, and split up), fixed once made (with a Builder)
+ */
+public final class IntegrationConfig {
+	/** Default number of tracks read at once */
+	public static final int DEFAULT_MAX_OPEN_FILES = 128;
+
+	/** true to add the logs of the cMBFs rather than multiply them */
+	private final boolean logSpace;
+	/** Number of tracks read at once */
+	private final int maxOpenFiles;
+	/** true to integrate over the union of the tracks' intervals, which may differ */
+	private final boolean union;
+	/** cMBF of a track where it has no interval (with union) */
+	private final double missingValue;
+	/** Number of intervals per parallel part of a chromosome */
+	private final int chunkBins;
+
+	private IntegrationConfig(Builder b) {
+		logSpace = b.logSpace;
+		maxOpenFiles = b.maxOpenFiles;
+		union = b.union;
+		missingValue = b.missingValue;
+		chunkBins = b.chunkBins;
+	}
+
+	/**
+	 * Makes an IntegrationConfig from the parameters that are given by name, the others keeping their defaults
+	 * (see defaults())
+	 */
+	public static final class Builder {
+		private boolean logSpace;
+		private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+		private boolean union;
+		private double missingValue;
+		private int chunkBins = Driver.DEFAULT_CHUNK_BINS;
+
+		public Builder logSpace(boolean lS) {
+			logSpace = lS;
+			return this;
+		}
+
+		public Builder maxOpenFiles(int mOF) {
+			maxOpenFiles = mOF;
+			return this;
+		}
+
+		public Builder union(boolean u) {
+			union = u;
+			return this;
+		}
+
+		public Builder missingValue(double mV) {
+			missingValue = mV;
+			return this;
+		}
+
+		public Builder chunkBins(int cB) {
+			chunkBins = cB;
+			return this;
+		}
+
+		/** @throws IllegalArgumentException - if fewer than 2 tracks are to be read at once */
+		public IntegrationConfig build() {
+			if (maxOpenFiles < 2) {
+				throw new IllegalArgumentException("Number of open files must be at least 2: " + maxOpenFiles);
+			}
+			return new IntegrationConfig(this);
+		}
+	}
+
+	/** @return the default integration: product of identical intervals, in one pass where possible */
+	public static IntegrationConfig defaults() {
+		return new Builder().build();
+	}
+
+	public boolean isLogSpace() {
+		return logSpace;
+	}
+
+	public int getMaxOpenFiles() {
+		return maxOpenFiles;
+	}
+
+	public boolean isUnion() {
+		return union;
+	}
+
+	public double getMissingValue() {
+		return missingValue;
+	}
+
+	public int getChunkBins() {
+		return chunkBins;
+	}
+
+	@Override
+	public String toString() {
+		return "[logSpace:" + logSpace + ", openFiles:" + maxOpenFiles + ", union:" + union + ", missingValue:" + missingValue
+				+ ", chunkSize:" + chunkBins + "]";
+	}
+}
@@ -0,0 +1,56 @@
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Part of a chromosome integrated by one task: the intervals that start in [from, to)
+ * Parts are aligned across the tracks by coordinate, so each track's part is found in it on its own
+ * (by binary search in a bedGraph track, from the segment headers in a binary track)
+ */
+class IntegrationSplit {
+
+	/** part number over all the chromosomes, in output order */
+	private int _index;
+	private String _chromNum;
+	private int _from;
+	private int _to;
+	/** byte range of the chromosome in each track (null for binary tracks) */
+	private ChromRange[] _chromRanges;
+
+	public IntegrationSplit(int i, String cN, int f, int t, ChromRange[] cRs) {
+		_index = i;
+		_chromNum = cN;
+		_from = f;
+		_to = t;
+		_chromRanges = cRs;
+	}
+
+	public int getIndex() {
+		return _index;
+	}
+
+	public String getChromNum() {
+		return _chromNum;
+	}
+
+	public int getFrom() {
+		return _from;
+	}
+
+	public int getTo() {
+		return _to;
+	}
+
+	/** Opens the part of the given track (its index in the list the split was planned for) */
+	public TrackReader open(File f, int track) throws IOException {
+		if (f.getName().endsWith(BinaryTrackWriter.EXTENSION)) {
+			return new BinaryTrackReader(f, _chromNum, _from, _to);
+		}
+		return BedGraphTrackReader.open(f, _chromRanges[track], _from, _to);
+	}
+
+	@Override
+	public String toString() {
+		return "[split:" + _index + ", chrom:" + _chromNum + ", from:" + _from + ", to:" + _to + "]";
+	}
+}
@@ -0,0 +1,144 @@
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * Computes one chromosome of every sample of a count matrix (bedtools multicov: chromosome, start, end,
+ * then a count per sample), and integrates them, in one pass over the chromosome's lines
+ * Each line is parsed once and the samples' windows slide over it together (see ChromWindowStream), so the
+ * samples need no input files of their own. The tracks and the integration are the same as running the
+ * samples as separate inputs and integrating them with FusedIntegration.
+ */
+class MatrixIntegration implements Callable<File>, SizedTask {
+
+	/** parameters of each sample's run, all on the same matrix */
+	private final RunConfig[] configs;
+	/** the chromosome's range in the matrix */
+	private final ChromRange chromRange;
+	/** Integration output filename, null to only write the samples' tracks */
+	private final String outfile;
+	/** true to integrate in log space */
+	private final boolean logSpace;
+
+	public MatrixIntegration(RunConfig[] rCs, ChromRange cR, String oF, boolean lS) {
+		configs = rCs;
+		chromRange = cR;
+		outfile = oF;
+		logSpace = lS;
+	}
+
+	public ChromRange getChromRange() {
+		return chromRange;
+	}
+
+	/** @return estimated work of the task, in bytes of the matrix's input */
+	@Override
+	public long getWorkEstimate() {
+		return chromRange.getLength();
+	}
+
+	/**
+	 * @return the matrix's sample names: the count columns of its header line (one before the first interval,
+	 * with as many fields as the intervals), or s1 to sN if it has none
+	 * @throws IOException - if the matrix cannot be read, or has no interval with a count
+	 */
+	public static String[] readSampleNames(File matrix) throws IOException {
+		String[] header = null;
+		BufferedReader br = new BufferedReader(new FileReader(matrix));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (!isInterval(fields)) {
+					header = fields;
+					continue;
+				}
+				if (fields.length < 4) break;
+				String[] names = new String[fields.length - 3];
+				for (int k = 0; k < names.length; k++) {
+					names[k] = header != null && header.length == fields.length ? header[k + 3] : "s" + (k + 1);
+				}
+				return names;
+			}
+		} finally {
+			br.close();
+		}
+		throw new IOException("Matrix has no intervals with read counts: " + matrix.getPath());
+	}
+
+	private static boolean isInterval(String[] fields) {
+		if (fields.length < 3 || !fields[0].startsWith("chr")) return false;
+		try {
+			Integer.parseInt(fields[1]);
+			Integer.parseInt(fields[2]);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public File call() throws Exception {
+		int nSamples = configs.length;
+		TrackWriter[] tracks = new TrackWriter[nSamples];
+		ChromWindowStream cs = null;
+		File integFile = outfile == null ? null : new File(outfile);
+		BedGraphWriter pw = integFile == null ? null : new BedGraphWriter(integFile);
+
+		try {
+			cs = new ChromWindowStream(configs[0], chromRange);
+			for (int i = 0; i < nSamples; i++) {
+				tracks[i] = ProcessChromFile.openTrack(configs[i], getTrackFile(i), true);
+			}
+			if (pw != null) {
+				FileIntegration.writeHeader(pw, outfile);
+			}
+
+			int[] starts = new int[FileIntegration.BLOCK_SIZE];
+			int[] ends = new int[FileIntegration.BLOCK_SIZE];
+			double[][] values = new double[nSamples][FileIntegration.BLOCK_SIZE];
+			double[] acc = new double[FileIntegration.BLOCK_SIZE];
+
+			boolean endReached = false;
+			while (!endReached) {
+				//a block of intervals of all samples at once
+				int n = 0;
+				while (n < FileIntegration.BLOCK_SIZE && cs.next()) {
+					starts[n] = cs.getStart();
+					ends[n] = cs.getEnd();
+					for (int i = 0; i < nSamples; i++) {
+						tracks[i].add(cs.getChromBytes(), cs.getStart(), cs.getEnd(), cs.getcMBF(i));
+						//the value as written to (and read back from) a track
+						values[i][n] = BedGraphWriter.roundFixed(cs.getcMBF(i), 5);
+					}
+					n++;
+				}
+				endReached = n < FileIntegration.BLOCK_SIZE;
+				if (pw == null) continue;
+
+				FileIntegration.initBlock(acc, n, logSpace);
+				for (int i = 0; i < nSamples; i++) {
+					FileIntegration.accumulate(acc, values[i], n, logSpace);
+				}
+				FileIntegration.finishBlock(acc, n, logSpace);
+				FileIntegration.writeBlock(pw, cs.getChromBytes(), starts, ends, acc, n);
+			}
+		} finally {
+			if (cs != null) cs.close();
+			for (int i = 0; i < nSamples; i++) {
+				if (tracks[i] != null) tracks[i].close();
+			}
+			if (pw != null) pw.close();
+		}
+
+		return integFile;
+	}
+
+	/** @return the sample's track file of the chromosome */
+	public File getTrackFile(int sample) {
+		return configs[sample].getTrackFile(chromRange.getChromNum());
+	}
+}
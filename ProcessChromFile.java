@@ -1,175 +1,179 @@
 
 
 import java.io.File;
-import java.io.PrintWriter;
-import java.util.Scanner;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.concurrent.Callable;
 
-public class ProcessChromFile implements Callable<File> {
-	/** Window size for calculating cMBF (in bp) */
-	private static Integer windowbpSize;
-	/** Read resolution / width of bin */
-	private static int intervalSize;
-	/** Median multiple */
-	private static double medianMult;
-	private static String outBaseName = null;
-
-	private String dirName;
-	private File chromFile;
-
-	public ProcessChromFile(String dN, File cF) {
-		dirName = dN;
-		chromFile = cF;
+public class ProcessChromFile implements Callable<File>, SizedTask {
+	/** parameters of the run */
+	private RunConfig config;
+	private ChromRange chromRange;
+	/** part of the chromosome to compute, null for the whole chromosome */
+	private ChromChunk chunk;
+	/** stream over the chromosome of input shared by the chromosomes in turn, null to read the chromosome's range */
+	private ChromWindowStream stream;
+
+	/** time the task took, and when it finished (System.nanoTime) */
+	private long elapsedNanos;
+	private long finishNanos;
+	/** time the computation waited for input read ahead, and for output to be written */
+	private long readWaitNanos;
+	private long writeWaitNanos;
+
+	public ProcessChromFile(RunConfig rC, ChromRange cR) {
+		this(rC, cR, null);
 	}
-	
-	public static void setWinSize(int wS) {
-		windowbpSize = wS;
+
+	public ProcessChromFile(RunConfig rC, ChromRange cR, ChromChunk cC) {
+		config = rC;
+		chromRange = cR;
+		chunk = cC;
 	}
-	
-	public static void setIntSize(int iS) {
-		intervalSize = iS;
+
+	/** Task computing the chromosome of a stream over shared input (standard input, a pipe) */
+	public ProcessChromFile(RunConfig rC, ChromWindowStream cs) {
+		this(rC, cs.getChromRange(), null);
+		stream = cs;
 	}
-	
-	public static void setMedMult(double mM) {
-		medianMult = mM;
+
+	public ChromRange getChromRange() {
+		return chromRange;
 	}
-	
-	public static void setOutBaseName(String oBN) {
-		outBaseName = oBN;
+
+	public ChromChunk getChunk() {
+		return chunk;
 	}
 
+	/**
+	 * @return estimated work of the task in bytes of input, the chromosome's share for a chunk
+	 */
 	@Override
-	public File call() throws Exception {
-		String outDirName = dirName.substring(0, dirName.lastIndexOf("_ChromFiles")) + "_out";
-		String spacer = "/";
-		File outDir = new File(outDirName);
-		boolean outFolderMade = outDir.mkdir(); 
-		if (!outDir.exists() && !outFolderMade) {
-			spacer = "_";
-		}
-		
-		String outFileName = "";
-		String chromFileName = chromFile.getName().substring(0, chromFile.getName().length() - 4); //remove '.bed'
-		
-		if (outBaseName == null) {
-			outFileName = "out_" + chromFileName;
-		}
-		else {
-			outFileName = outBaseName + "_" + chromFileName;
-		}
-		
-		String outFilePath = outDirName + spacer + outFileName;
-		File outFile = new File(outFilePath + ".bedGraph");
-		PrintWriter pw = new PrintWriter(outFile);
-		pw.println("track type=bedGraph name=\"" + outFilePath + "\"" + " description=\"" + outFilePath + "\" "
-				+ "visibility=full autoScale=Off alwaysZero=On maxHeightPixels=128:30:11 viewLimits=0:1"); //header
-
-		Scanner sc = new Scanner(chromFile);
-		if (!sc.hasNextLine()) {
-			sc.close();
-			pw.close();
-			return outFile;
-		}
-
-		String line = sc.nextLine();
-		IntStats_WGSep startIS = parseLine(line);
-		
-		if (startIS == null) {
-			System.err.println("Unable to parse line: " + line);
-			System.exit(1);
-		}
-
-		int index = startIS.getStart();
-		intervalSize = startIS.getEnd() - startIS.getStart();
-		String chromNum = startIS.getChromNum();
-		
-		if (windowbpSize % intervalSize != 0) {
-			sc.close();
-			pw.close();
-			System.err.println("Window size must be a multiple of the interval size");
-			System.exit(1);
+	public long getWorkEstimate() {
+		if (chunk == null) {
+			return chromRange.getLength();
 		}
+		long outLines = ((long) chunk.getOutEnd() - chunk.getOutStart()) / chunk.getIntervalSize();
+		return chromRange.getLength() * outLines / chunk.getChromLines();
+	}
 
-		IntWindow_WGSep window = new IntWindow_WGSep(chromNum, windowbpSize, intervalSize, medianMult, index);
-		window.insert(startIS);
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
 
-		//parse through file for position index and its read count
-		while(sc.hasNextLine()) {
-			if (window.toFill() > 0) {
-				line = sc.nextLine();
-				IntStats_WGSep ps = parseLine(line);
-				if (ps == null) continue;
-				window.insert(ps);
-			}
+	public long getFinishNanos() {
+		return finishNanos;
+	}
 
-			if (window.full()) { //filled window, calculate stats for current position and increment (middle indices)
-				printIndexStats(pw, window);
+	public long getReadWaitNanos() {
+		return readWaitNanos;
+	}
 
-				if (!sc.hasNextLine()) {
-					window.setEndOfChrom();
-				}
+	public long getWriteWaitNanos() {
+		return writeWaitNanos;
+	}
 
-				window.incrCenter();
-				index += intervalSize;
-			}
+	@Override
+	public File call() throws Exception {
+		long t0 = System.nanoTime();
+		try {
+			return chunk == null ? callChrom() : callChunk();
+		} finally {
+			finishNanos = System.nanoTime();
+			elapsedNanos = finishNanos - t0;
 		}
+	}
 
-		if (!sc.hasNextLine()) { //reached end of file, finish computing for last indices
-			window.setEndOfChrom();
+	/** Computes the whole chromosome */
+	private File callChrom() throws Exception {
+		File outFile = getOutFile();
+		TrackWriter tw = openTrack(config, outFile, true);
 
-			if (!window.full()) { //reached end of file, but window not filled
-				windowbpSize = window.setSmallerWindowSize() * intervalSize;
-			}
+		compute(stream != null ? stream : new ChromWindowStream(config, chromRange), tw);
+		return outFile;
+	}
 
-			int lastIndex =  window.getLastStartIndex();
+	/**
+	 * Computes one chunk of the chromosome, reading the window around it from the middle of the range
+	 * The first chunk writes the chromosome's output file (with header); the others write part files
+	 * to be appended to it with mergeChunks()
+	 * @throws IllegalStateException - if the intervals turn out not to be contiguous (chunking does not apply)
+	 */
+	private File callChunk() throws Exception {
+		File outFile = getOutFile();
+		File partFile = partFile(outFile, chunk.getIndex());
+		TrackWriter tw = openTrack(config, partFile, chunk.getIndex() == 0);
+
+		compute(new ChromWindowStream(config, chromRange, chunk), tw);
+		return partFile;
+	}
 
-			for (index += 0; index <= lastIndex; index += intervalSize) {
-				printIndexStats(pw, window);
-				window.incrCenter();
+	/**
+	 * Writes every interval of the stream
+	 * With more than one thread this is the middle of three stages: the input is read ahead by the stream,
+	 * and the output written behind by the writer, each a block at a time on the shared pool
+	 */
+	private void compute(ChromWindowStream cs, TrackWriter tw) throws IOException {
+		AsyncTrackWriter aw = tw instanceof AsyncTrackWriter ? (AsyncTrackWriter) tw : null;
+		try {
+			while (cs.next()) {
+				tw.add(cs.getChromBytes(), cs.getStart(), cs.getEnd(), cs.getcMBF());
 			}
-
+		} finally {
+			cs.close();
+			tw.close();
+			readWaitNanos = cs.getReadWaitNanos();
+			writeWaitNanos = aw != null ? aw.getWaitNanos() : 0;
 		}
-		
-		sc.close();
-		pw.close();
-		return outFile;
 	}
 
-	public IntStats_WGSep parseLine(String line) {
-		String[] ra = line.split("\\s+");
-		if (line.isEmpty() || ra.length == 0) return null;
+	/**
+	 * Appends the part files of chunks 1 to nChunks - 1 to the first chunk's output and deletes them
+	 */
+	public static void mergeChunks(File outFile, int nChunks) throws IOException {
+		ArrayList<File> parts = new ArrayList<File>();
+		for (int i = 1; i < nChunks; i++) {
+			parts.add(partFile(outFile, i));
+		}
+		BedGraphTrackWriter.append(parts, outFile, false);
+		for (File part : parts) {
+			part.delete();
+		}
+	}
 
-		try {
-			String chromNum;
-			int intStart, intEnd, intReadCount;
-			
-			chromNum = ra[0];
-			intStart = Integer.parseInt(ra[1]);
-			intEnd = Integer.parseInt(ra[2]);
-			intReadCount = Integer.parseInt(ra[3]);
-			return new IntStats_WGSep(chromNum, intStart, intEnd, intervalSize, intReadCount);
-		} catch (NumberFormatException e) {
-			System.err.println("File has improper values: " + line);
-			System.exit(1);
-		} catch (IndexOutOfBoundsException e) {
-			System.err.println("Improper file formatting/values: " + line);
-			System.exit(1);
+	/** Deletes any part files left by chunks of a chromosome */
+	public static void deleteChunks(File outFile, int nChunks) {
+		for (int i = 1; i < nChunks; i++) {
+			partFile(outFile, i).delete();
 		}
+	}
 
-		return null;
+	/** output of chunk i (the chromosome's output file itself for the first chunk) */
+	private static File partFile(File outFile, int i) {
+		if (i == 0) return outFile;
+		return new File(outFile.getPath() + ".part" + i);
 	}
 
-	public void printIndexStats(PrintWriter pw, IntWindow_WGSep window) {
-		try {
-			String cN = window.getChromNum();
-			int iS = window.getIndexStart();
-			int iE = window.getIndexEnd();
-			double icMBF = window.calccMBF();
-
-			pw.printf("%s\t%d\t%d\t%.5f\n", cN, iS, iE, icMBF);
-		} catch (Exception e) {
-			System.err.println(e.getMessage());
-			System.exit(1);
+	/** @return the chromosome's output file, making the output directory if needed */
+	public File getOutFile() {
+		return config.getTrackFile(chromRange.getChromNum());
+	}
+
+	/**
+	 * Opens a track for writing in the run's format, written behind on the shared pool if there is more than one thread
+	 * @param header - true for a whole track or a chromosome's first chunk
+	 */
+	static TrackWriter openTrack(RunConfig config, File f, boolean header) throws IOException {
+		TrackWriter tw;
+		if (config.isBinaryTracks()) {
+			tw = new BinaryTrackWriter(f, header);
+		}
+		else {
+			tw = new BedGraphTrackWriter(f, header);
+		}
+		if (TaskScheduler.getThreads() > 1) {
+			return new AsyncTrackWriter(tw, ChromWindowStream.BLOCK_SIZE);
 		}
+		return tw;
 	}
 }
@@ -0,0 +1,276 @@
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the read counts of a byte range of a bed input (one chromosome, or the part of it a chunk needs),
+ * or of input read in one pass, as a track, so they can be read a block at a time (and ahead) by TrackBlockReader
+ * Header lines are skipped; each line is parsed as it is reached, its read count being the one used in the
+ * window (minRC in place of zero)
+ * Run-length input (bedtools genomecov -bg: runs of any length, zero runs left out) is read as bins of a
+ * given size from the bin of the first run to the bin of the last. Each bin's count is the mean over its
+ * bases, so a run covering whole bins gives each of them its count, and bins between runs count as zero
+ * (minRC). A bin whose mean comes out below minRC (a run only touching it) counts as minRC too, so that,
+ * as in binned input, a bin with reads never scores below an empty one. This is the same as running on
+ * the runs expanded to bins, without writing them out.
+ * Each run is read and parsed once, but it is still stepped through a bin at a time, since every bin is an
+ * interval of the track (and gets its own cMBF): the cost is O(1) per bin, so O(bins) rather than O(runs)
+ * for a chromosome. A long run costs its bins in the window too, only without changing the running median.
+ * Per-base input (samtools depth: chromosome, 1-based position, depth) is read the same way, each position
+ * being a run of one base, except that a bin's count is the sum of its depths (the read bases in it).
+ * Input read in one pass (standard input) can hold any number of chromosomes; each starts its own bins.
+ * A count matrix (bedtools multicov: chromosome, start, end, then a count per sample) is read a line per
+ * interval with all of its counts, so each line is parsed once for every sample.
+ */
+class ReadCountReader implements TrackReader {
+
+	private BedReader br;
+	private double minRC;
+	/** bin size of run-length or per-base input, 0 if each line is a bin */
+	private int binSize;
+	/** true for per-base input (position and depth), whose bins are sums rather than means */
+	private boolean perBase;
+	/** read counts of the current line of a count matrix, null for other input */
+	private double[] counts;
+
+	/** current run (or base), and its chromosome (the same array as binChrom if it is the bins' chromosome) */
+	private boolean hasRun;
+	private int runStart;
+	private int runEnd;
+	private int runCount;
+	private byte[] runChrom;
+	/** chromosome of the current bin, and the end of its last run read */
+	private byte[] binChrom;
+	private int lastRunEnd;
+	private boolean started;
+
+	/** number of data lines read, and the last one's interval and read count */
+	private long lineCount;
+	private int lineStart;
+	private int lineEnd;
+	private int lineReadCount;
+	/** current interval (a line, or a bin of run-length input) */
+	private int start;
+	private int end;
+	private double readCount;
+
+	/**
+	 * @param bS - bin size of run-length or per-base input, 0 if the input is already in bins
+	 * @param pB - true for per-base input
+	 */
+	public ReadCountReader(InputStream is, double mRC, int bS, boolean pB) {
+		br = new BedReader(is);
+		minRC = mRC;
+		binSize = bS;
+		perBase = pB;
+	}
+
+	/** Reads a count matrix of nC samples */
+	public ReadCountReader(InputStream is, double mRC, int nC) {
+		br = new BedReader(is, BedReader.BUFFER_SIZE, 3 + nC + 1);
+		minRC = mRC;
+		counts = new double[nC];
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		if (binSize > 0) {
+			return nextBin();
+		}
+		while (br.next()) {
+			if (br.isChromLine()) {
+				if (counts != null) {
+					parseCounts();
+				}
+				parseLine();
+				start = lineStart;
+				end = lineEnd;
+				readCount = toReadCount(lineReadCount, minRC);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Read count used in the window for a parsed count (zero is replaced by minRC), exiting if it is negative
+	 */
+	static double toReadCount(int rc, double minRC) {
+		if (rc > 0) {
+			return rc;
+		}
+		else if (rc == 0) {
+			return minRC;
+		}
+		System.err.println("readCount cannot be negative" + rc);
+		System.exit(1);
+		return minRC;
+	}
+
+	/** Parses the current line into lineStart/lineEnd/lineReadCount, exiting if it is not a proper line */
+	private void parseLine() {
+		try {
+			lineStart = br.getInt(1);
+			lineEnd = br.getInt(2);
+			lineReadCount = br.getInt(3);
+			toReadCount(lineReadCount, minRC); //exits if negative
+			lineCount++;
+		} catch (NumberFormatException e) {
+			System.err.println("File has improper values: " + br.lineString());
+			System.exit(1);
+		} catch (IndexOutOfBoundsException e) {
+			System.err.println("Improper file formatting/values: " + br.lineString());
+			System.exit(1);
+		}
+	}
+
+	/** Parses the read counts of the current line of a count matrix (the first is parsed as the line's) */
+	private void parseCounts() {
+		if (br.fieldCount() != 3 + counts.length) {
+			System.err.println("Line must have " + counts.length + " read counts: " + br.lineString());
+			System.exit(1);
+		}
+		try {
+			for (int c = 1; c < counts.length; c++) {
+				counts[c] = toReadCount(br.getInt(3 + c), minRC);
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("File has improper values: " + br.lineString());
+			System.exit(1);
+		}
+	}
+
+	/** Parses the current line of per-base input (position, depth) as a run of one base */
+	private void parseBase() {
+		try {
+			int position = br.getInt(1);
+			lineStart = position - 1;
+			lineEnd = position;
+			lineReadCount = br.getInt(2);
+			toReadCount(lineReadCount, minRC); //exits if negative
+			lineCount++;
+		} catch (NumberFormatException e) {
+			System.err.println("File has improper values: " + br.lineString());
+			System.exit(1);
+		} catch (IndexOutOfBoundsException e) {
+			System.err.println("Improper file formatting/values: " + br.lineString());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Moves to the next bin of run-length or per-base input, reading the runs it overlaps
+	 * A chromosome's bins go on to the bin of its last run, then the next chromosome's start at the bin of its first
+	 */
+	private boolean nextBin() throws IOException {
+		if (!started) {
+			started = true;
+			nextRun();
+		}
+		if (binChrom == null || (!(hasRun && runChrom == binChrom) && end >= lastRunEnd)) {
+			if (!hasRun) return false;
+			binChrom = runChrom;
+			lastRunEnd = runEnd;
+			end = Math.floorDiv(runStart, binSize) * binSize;
+		}
+
+		start = end;
+		end = start + binSize;
+		double sum = 0;
+		while (hasRun && runChrom == binChrom && runStart < end) {
+			sum += (double) runCount * (Math.min(runEnd, end) - Math.max(runStart, start));
+			if (runEnd > end) break; //the run goes on into the next bin
+			nextRun();
+		}
+		double count = perBase ? sum : sum / binSize;
+		readCount = count > minRC ? count : minRC; //not below an empty bin
+		return true;
+	}
+
+	/** Reads the next run (or base) */
+	private boolean nextRun() throws IOException {
+		while (br.next()) {
+			if (!br.isChromLine()) continue;
+			if (perBase) {
+				parseBase();
+			}
+			else {
+				parseLine();
+			}
+			runStart = lineStart;
+			runEnd = lineEnd;
+			runCount = lineReadCount;
+			boolean onBinChrom = binChrom != null && br.chromEquals(binChrom);
+			runChrom = onBinChrom ? binChrom : br.getChromBytes();
+			if (runEnd <= runStart || (onBinChrom && runStart < lastRunEnd)) {
+				System.err.println((perBase ? "Positions must be sorted and not repeat: " : "Runs must be sorted and not overlap: ")
+						+ br.lineString());
+				System.exit(1);
+			}
+			if (onBinChrom) {
+				lastRunEnd = runEnd;
+			}
+			hasRun = true;
+			return true;
+		}
+		hasRun = false;
+		return false;
+	}
+
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	/** @return number of read counts per interval (samples of a count matrix, otherwise 1) */
+	public int getColumns() {
+		return counts != null ? counts.length : 1;
+	}
+
+	/** @return the read count of a sample of a count matrix used in its window (column 0 is getValue()) */
+	public double getValue(int column) {
+		return column == 0 ? readCount : counts[column];
+	}
+
+	@Override
+	public boolean chromEquals(byte[] chrom) {
+		if (binSize > 0) return Arrays.equals(binChrom, chrom);
+		return br.chromEquals(chrom);
+	}
+
+	@Override
+	public byte[] getChromBytes() {
+		if (binSize > 0) return binChrom.clone();
+		return br.getChromBytes();
+	}
+
+	@Override
+	public int getStart() {
+		return start;
+	}
+
+	@Override
+	public int getEnd() {
+		return end;
+	}
+
+	/** @return the read count used in the window */
+	@Override
+	public double getValue() {
+		return readCount;
+	}
+
+	@Override
+	public String lineString() {
+		if (binSize > 0) {
+			return new String(binChrom, StandardCharsets.US_ASCII) + "\t" + start + "\t" + end + "\t" + readCount;
+		}
+		return br.lineString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		br.close();
+	}
+}
@@ -0,0 +1,247 @@
+
+import java.io.File;
+
+/**
+ * Parameters of one sample's run (input, output names, window parameters), fixed once made (with a Builder)
+ * Passed to every task of the run, so samples with different parameters can run at the same time
+ */
+public final class RunConfig {
+	/** Input bed file (or depth, BAM, SAM file), "-" for standard input */
+	private final String inBed;
+	/** input file name without '.bed', '.bam' or '.sam' ("stdin" for standard input), prefix of the output directory */
+	private final String baseName;
+	private final String outBaseName;
+	/** Window size for calculating cMBF (in bp) */
+	private final int windowbpSize;
+	/** Median multiple */
+	private final double medianMult;
+	/** Minimum read count (in place of zero) */
+	private final double minRC;
+	/** Number of intervals per parallel chunk of a chromosome */
+	private final int chunkBins;
+	/** true to write the cMBF tracks in the binary format instead of bedGraph */
+	private final boolean binaryTracks;
+	/** Bin size of run-length input (bedtools genomecov -bg), 0 for input already in bins */
+	private final int runBinSize;
+	/** Bin size of per-base input (samtools depth), 0 for other input */
+	private final int depthBinSize;
+	/** Bin size of alignment input (BAM, SAM), 0 for other input */
+	private final int alignBinSize;
+	/** true to count the aligned bases of alignment input per bin, false to count reads */
+	private final boolean alignCoverage;
+	/** Number of samples of a count matrix input (bedtools multicov), 0 for other input */
+	private final int matrixColumns;
+
+	private RunConfig(Builder b) {
+		inBed = b.inBed;
+		if (inBed.equals("-")) {
+			baseName = "stdin";
+		}
+		else if (inBed.endsWith(".bed") || inBed.endsWith(".bam") || inBed.endsWith(".sam")) {
+			baseName = inBed.substring(0, inBed.length() - 4);
+		}
+		else {
+			baseName = inBed;
+		}
+		outBaseName = b.outBaseName;
+		windowbpSize = b.windowbpSize;
+		medianMult = b.medianMult;
+		minRC = b.minRC;
+		chunkBins = b.chunkBins;
+		binaryTracks = b.binaryTracks;
+		runBinSize = b.runBinSize;
+		depthBinSize = b.depthBinSize;
+		alignBinSize = b.alignBinSize;
+		alignCoverage = b.alignCoverage;
+		matrixColumns = b.matrixColumns;
+	}
+
+	/**
+	 * Makes a RunConfig from the parameters that are given by name, the others keeping their defaults
+	 * (output "out", 10000 bp window, median multiple 1, default zero 0.5, bedGraph tracks, input in bins)
+	 */
+	public static final class Builder {
+		private final String inBed;
+		private String outBaseName = "out";
+		private int windowbpSize = 10000;
+		private double medianMult = 1;
+		private double minRC = 0.5;
+		private int chunkBins = Driver.DEFAULT_CHUNK_BINS;
+		private boolean binaryTracks;
+		private int runBinSize;
+		private int depthBinSize;
+		private int alignBinSize;
+		private boolean alignCoverage;
+		private int matrixColumns;
+
+		public Builder(String iB) {
+			inBed = iB;
+		}
+
+		public Builder outBaseName(String oBN) {
+			outBaseName = oBN == null ? "out" : oBN;
+			return this;
+		}
+
+		public Builder windowbpSize(int wS) {
+			windowbpSize = wS;
+			return this;
+		}
+
+		public Builder medianMult(double mM) {
+			medianMult = mM;
+			return this;
+		}
+
+		public Builder minRC(double mRC) {
+			minRC = mRC;
+			return this;
+		}
+
+		public Builder chunkBins(int cB) {
+			chunkBins = cB;
+			return this;
+		}
+
+		public Builder binaryTracks(boolean bT) {
+			binaryTracks = bT;
+			return this;
+		}
+
+		public Builder runBinSize(int rBS) {
+			runBinSize = rBS;
+			return this;
+		}
+
+		public Builder depthBinSize(int dBS) {
+			depthBinSize = dBS;
+			return this;
+		}
+
+		public Builder alignBinSize(int aBS) {
+			alignBinSize = aBS;
+			return this;
+		}
+
+		public Builder alignCoverage(boolean aC) {
+			alignCoverage = aC;
+			return this;
+		}
+
+		public Builder matrixColumns(int mC) {
+			matrixColumns = mC;
+			return this;
+		}
+
+		public RunConfig build() {
+			return new RunConfig(this);
+		}
+	}
+
+	public String getInBed() {
+		return inBed;
+	}
+
+	public File getInFile() {
+		return new File(inBed);
+	}
+
+	/** @return true if the input is standard input or a pipe, to be read once from start to end */
+	public boolean isStreamInput() {
+		if (inBed.equals("-")) return true;
+		File f = getInFile();
+		return f.exists() && !f.isFile() && !f.isDirectory();
+	}
+
+	public String getBaseName() {
+		return baseName;
+	}
+
+	public String getOutBaseName() {
+		return outBaseName;
+	}
+
+	public int getWindowbpSize() {
+		return windowbpSize;
+	}
+
+	public double getMedianMult() {
+		return medianMult;
+	}
+
+	public double getMinRC() {
+		return minRC;
+	}
+
+	public int getChunkBins() {
+		return chunkBins;
+	}
+
+	public boolean isBinaryTracks() {
+		return binaryTracks;
+	}
+
+	public int getRunBinSize() {
+		return runBinSize;
+	}
+
+	public int getDepthBinSize() {
+		return depthBinSize;
+	}
+
+	public int getAlignBinSize() {
+		return alignBinSize;
+	}
+
+	public boolean isAlignCoverage() {
+		return alignCoverage;
+	}
+
+	public int getMatrixColumns() {
+		return matrixColumns;
+	}
+
+	/** @return true if the input is alignments (BAM, SAM) */
+	public boolean isAlignmentInput() {
+		return alignBinSize > 0;
+	}
+
+	/** @return true if each input line is one bin (not run-length, per-base or alignment input) */
+	public boolean isBinnedInput() {
+		return runBinSize == 0 && depthBinSize == 0 && alignBinSize == 0;
+	}
+
+	/**
+	 * @return output file [baseName]_out/[outBaseName]_[name].bedGraph, making the output directory if needed
+	 * (if it cannot be made, the file goes next to it as [baseName]_out_[outBaseName]_[name].bedGraph)
+	 */
+	public File getOutFile(String name) {
+		return getOutFile(name, ".bedGraph");
+	}
+
+	/**
+	 * @return cMBF track file of the given chromosome (or "chrAll"), bedGraph or binary
+	 */
+	public File getTrackFile(String name) {
+		return getOutFile(name, binaryTracks ? BinaryTrackWriter.EXTENSION : ".bedGraph");
+	}
+
+	private File getOutFile(String name, String extension) {
+		String outDirName = baseName + "_out";
+		String spacer = "/";
+		File outDir = new File(outDirName);
+		boolean outFolderMade = outDir.mkdirs();
+		if (!outDir.exists() && !outFolderMade) {
+			spacer = "_";
+		}
+		return new File(outDirName + spacer + outBaseName + "_" + name + extension);
+	}
+
+	@Override
+	public String toString() {
+		return "[input:" + inBed + ", output:" + outBaseName + ", windowSize:" + windowbpSize + ", medMult:" + medianMult
+				+ ", defaultZero:" + minRC + ", chunkSize:" + chunkBins + ", binary:" + binaryTracks + ", runBinSize:" + runBinSize
+				+ ", depthBinSize:" + depthBinSize + ", alignBinSize:" + alignBinSize + ", alignCoverage:" + alignCoverage
+				+ ", matrixColumns:" + matrixColumns + "]";
+	}
+}
@@ -0,0 +1,18 @@
+import java.util.Comparator;
+
+/**
+ * A task whose work can be estimated before it runs, so that tasks can be submitted largest first
+ */
+interface SizedTask {
+
+	/** @return estimated work of the task, in bytes of input */
+	long getWorkEstimate();
+
+	/** Sorts tasks by estimated work, largest first (ties keep input order) */
+	class WorkEstimateSorter implements Comparator<SizedTask> {
+		@Override
+		public int compare(SizedTask a, SizedTask b) {
+			return Long.compare(b.getWorkEstimate(), a.getWorkEstimate());
+		}
+	}
+}
@@ -0,0 +1,303 @@
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Integrates several subsets of the same tracks (all replicates, leave-one-out sets, ...) in one pass
+ * Every track is read once; the subsets are put in a trie by their tracks in order, so subsets that
+ * start with the same tracks share the product of those tracks, and each node multiplies in one more track.
+ * The product of each subset is taken in the order of its tracks, so each output is the same as
+ * integrating the subset on its own.
+ */
+class SubsetIntegration {
+
+	/** A node of the trie: the product of the tracks on the path to it */
+	private static class Node {
+		/** track multiplied in at this node (its index in the distinct tracks) */
+		final int track;
+		final ArrayList<Node> children = new ArrayList<Node>();
+		/** subsets ending here (their index in the outputs) */
+		final ArrayList<Integer> outputs = new ArrayList<Integer>();
+
+		Node(int t) {
+			track = t;
+		}
+
+		Node child(int t) {
+			for (Node c : children) {
+				if (c.track == t) return c;
+			}
+			Node c = new Node(t);
+			children.add(c);
+			return c;
+		}
+	}
+
+	/**
+	 * Reads a subsets file: one subset per line, its output file then its tracks, whitespace separated
+	 * (blank lines and lines starting with '#' are skipped)
+	 * @return the subsets' tracks by output file, in file order
+	 */
+	static LinkedHashMap<String, ArrayList<File>> readSubsets(File f) throws IOException {
+		LinkedHashMap<String, ArrayList<File>> subsets = new LinkedHashMap<String, ArrayList<File>>();
+		BufferedReader rd = null;
+		try {
+			rd = new BufferedReader(new FileReader(f));
+		} catch (FileNotFoundException e) {
+			throw new FileNotFoundException("File not found: " + f.getPath());
+		}
+		try {
+			String line;
+			while ((line = rd.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				String[] fields = line.split("\\s+");
+				if (fields.length < 2) {
+					throw new IOException("Subset has no tracks: " + line);
+				}
+				if (!fields[0].endsWith(".bedGraph")) {
+					throw new IOException("Subset output must be a .bedGraph: " + fields[0]);
+				}
+				if (subsets.containsKey(fields[0])) {
+					throw new IOException("Subset output given more than once: " + fields[0]);
+				}
+				ArrayList<File> tracks = new ArrayList<File>();
+				for (int i = 1; i < fields.length; i++) {
+					if (!fields[i].endsWith(".bedGraph") && !fields[i].endsWith(BinaryTrackWriter.EXTENSION)) {
+						throw new IOException("Incorrect filetypes - must be a .bedGraph or " + BinaryTrackWriter.EXTENSION + ": " + fields[i]);
+					}
+					tracks.add(new File(fields[i]));
+				}
+				subsets.put(fields[0], tracks);
+			}
+		} finally {
+			rd.close();
+		}
+		if (subsets.isEmpty()) {
+			throw new IOException("No subsets in " + f.getPath());
+		}
+		return subsets;
+	}
+
+	/**
+	 * Integrates each subset of tracks into its output file
+	 * The subsets share one pass (split into parts of chromosomes as in FileIntegration) if all their tracks
+	 * have the same chromosomes with the same spans and interval sizes, and there are at most maxOpenFiles
+	 * of them; otherwise, and with union, each subset is integrated on its own.
+	 */
+	static void integrateSubsets(LinkedHashMap<String, ArrayList<File>> subsets, IntegrationConfig config) throws IOException {
+		//distinct tracks, in order of first use
+		ArrayList<File> files = new ArrayList<File>();
+		HashMap<String, Integer> index = new HashMap<String, Integer>();
+		for (ArrayList<File> tracks : subsets.values()) {
+			for (File f : tracks) {
+				if (!index.containsKey(f.getPath())) {
+					index.put(f.getPath(), files.size());
+					files.add(f);
+				}
+			}
+		}
+		for (File f : files) {
+			if (!f.isFile()) {
+				System.err.println("File not found: " + f.getPath());
+				System.exit(1);
+			}
+		}
+
+		ArrayList<String> outfiles = new ArrayList<String>(subsets.keySet());
+		Node root = new Node(-1);
+		int k = 0;
+		for (ArrayList<File> tracks : subsets.values()) {
+			Node n = root;
+			for (File f : tracks) {
+				n = n.child(index.get(f.getPath()));
+			}
+			n.outputs.add(k++);
+		}
+
+		ArrayList<IntegrationSplit> splits = null;
+		if (!config.isUnion() && files.size() <= config.getMaxOpenFiles()) {
+			splits = FileIntegration.planSplits(files, config.getChunkBins());
+		}
+		if (splits == null) {
+			for (Map.Entry<String, ArrayList<File>> e : subsets.entrySet()) {
+				FileIntegration.integrateFiles(e.getValue(), e.getKey(), config);
+			}
+			return;
+		}
+		if (splits.size() < 2) {
+			integrateRange(files, outfiles, root, config, null);
+			return;
+		}
+
+		//forked rather than submitted: an integration running on the pool joins its parts, helping run them
+		ArrayList<TaskScheduler.Stage<List<String>>> stages = new ArrayList<TaskScheduler.Stage<List<String>>>();
+		ArrayList<ArrayList<File>> splitFiles = new ArrayList<ArrayList<File>>();
+		for (int i = 0; i < outfiles.size(); i++) {
+			splitFiles.add(new ArrayList<File>());
+		}
+		for (IntegrationSplit split : splits) {
+			ArrayList<String> splitOutfiles = new ArrayList<String>();
+			for (int i = 0; i < outfiles.size(); i++) {
+				File splitFile = new File(FileIntegration.tempFileName(outfiles.get(i), ".split" + split.getIndex()));
+				splitFile.deleteOnExit(); //in case a part stops the program
+				splitFiles.get(i).add(splitFile);
+				splitOutfiles.add(splitFile.getPath());
+			}
+			stages.add(TaskScheduler.fork(new SplitTask(files, splitOutfiles, root, config, split)));
+		}
+
+		for (TaskScheduler.Stage<List<String>> s : stages) {
+			s.await();
+		}
+
+		for (int i = 0; i < outfiles.size(); i++) {
+			FileIntegration.concatenate(splitFiles.get(i), outfiles.get(i));
+			for (File f : splitFiles.get(i)) {
+				f.delete();
+			}
+		}
+	}
+
+	/** Integrates every subset over one part of a chromosome */
+	private static class SplitTask implements Callable<List<String>> {
+		private final List<File> files;
+		private final List<String> outfiles;
+		private final Node root;
+		private final IntegrationConfig config;
+		private final IntegrationSplit split;
+
+		SplitTask(List<File> fs, List<String> oFs, Node r, IntegrationConfig iC, IntegrationSplit s) {
+			files = fs;
+			outfiles = oFs;
+			root = r;
+			config = iC;
+			split = s;
+		}
+
+		@Override
+		public List<String> call() throws IOException {
+			integrateRange(files, outfiles, root, config, split);
+			return outfiles;
+		}
+	}
+
+	/**
+	 * Integrates every subset over the tracks (or one part of their chromosomes), a block of intervals at a time
+	 * @param split - the part to integrate, null for the whole tracks
+	 */
+	private static void integrateRange(List<File> files, List<String> outfiles, Node root, IntegrationConfig config,
+			IntegrationSplit split) throws IOException {
+		boolean logSpace = config.isLogSpace();
+		int nTracks = files.size();
+		boolean prefetch = TaskScheduler.getThreads() > 1;
+		TrackBlockReader[] blocks = new TrackBlockReader[nTracks];
+		for (int t = 0; t < nTracks; t++) {
+			TrackReader tr = split == null ? FileIntegration.openTrack(files.get(t)) : split.open(files.get(t), t);
+			blocks[t] = new TrackBlockReader(tr, FileIntegration.BLOCK_SIZE, prefetch);
+		}
+
+		BedGraphWriter[] pws = new BedGraphWriter[outfiles.size()];
+		for (int i = 0; i < pws.length; i++) {
+			try {
+				pws[i] = new BedGraphWriter(new File(outfiles.get(i)));
+			} catch (FileNotFoundException e) {
+				throw new FileNotFoundException("File not found: " + outfiles.get(i));
+			}
+			FileIntegration.writeHeader(pws[i], outfiles.get(i));
+		}
+
+		//one accumulator per depth of the trie, and the logs of each track's block (computed once)
+		double[][] accs = new double[depth(root) + 1][FileIntegration.BLOCK_SIZE];
+		double[][] logs = logSpace ? new double[nTracks][FileIntegration.BLOCK_SIZE] : null;
+		double[] out = new double[FileIntegration.BLOCK_SIZE];
+
+		while (true) {
+			int n = FileIntegration.BLOCK_SIZE;
+			for (TrackBlockReader b : blocks) {
+				n = Math.min(n, b.readBlock());
+			}
+
+			//every track must have the same intervals, and end with the others
+			TrackBlockReader first = blocks[0];
+			for (int t = 1; t < nTracks; t++) {
+				int j = n > 0 ? blocks[t].firstMismatch(first, n) : -1;
+				if (j < 0 && blocks[t].size() != first.size()) {
+					j = n;
+				}
+				if (j >= 0) {
+					String where = blocks[t].intervalString(j);
+					System.err.println("File regions do not match: " + (where != null ? where : first.intervalString(j)));
+					System.exit(1);
+				}
+			}
+			if (n == 0) break;
+
+			if (logSpace) {
+				for (int t = 0; t < nTracks; t++) {
+					FileIntegration.initBlock(logs[t], n, true);
+					FileIntegration.accumulate(logs[t], blocks[t].getValues(), n, true);
+				}
+			}
+			FileIntegration.initBlock(accs[0], n, logSpace);
+			for (Node c : root.children) {
+				integrateNode(c, 1, blocks, logs, accs, out, n, logSpace, pws);
+			}
+		}
+
+		for (TrackBlockReader b : blocks) {
+			b.close();
+		}
+		for (BedGraphWriter pw : pws) {
+			pw.close();
+		}
+	}
+
+	/** Multiplies the node's track into its parent's product, writes the subsets ending there, then goes on to its children */
+	private static void integrateNode(Node node, int d, TrackBlockReader[] blocks, double[][] logs, double[][] accs,
+			double[] out, int n, boolean logSpace, BedGraphWriter[] pws) throws IOException {
+		double[] acc = accs[d];
+		System.arraycopy(accs[d - 1], 0, acc, 0, n);
+		if (logSpace) {
+			FileIntegration.addLogs(acc, logs[node.track], n);
+		}
+		else {
+			FileIntegration.accumulate(acc, blocks[node.track].getValues(), n, false);
+		}
+
+		if (!node.outputs.isEmpty()) {
+			double[] result = acc;
+			if (logSpace) {
+				System.arraycopy(acc, 0, out, 0, n);
+				FileIntegration.finishBlock(out, n, true);
+				result = out;
+			}
+			TrackBlockReader first = blocks[0];
+			for (int i : node.outputs) {
+				FileIntegration.writeBlock(pws[i], first.getChromBytes(), first.getStarts(), first.getEnds(), result, n);
+			}
+		}
+
+		for (Node c : node.children) {
+			integrateNode(c, d + 1, blocks, logs, accs, out, n, logSpace, pws);
+		}
+	}
+
+	/** @return number of tracks on the longest path below the node */
+	private static int depth(Node node) {
+		int d = 0;
+		for (Node c : node.children) {
+			d = Math.max(d, depth(c) + 1);
+		}
+		return d;
+	}
+}
@@ -0,0 +1,232 @@
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Integrates tracks whose intervals need not match (different interval sizes, or gaps)
+ * A sweep line moves along each chromosome through the union of all the tracks' interval boundaries; each
+ * piece between two boundaries that some track covers is written with the product of the tracks' cMBFs,
+ * taking the missing value for the tracks that do not cover it. Each input interval is read once.
+ * The intervals of each chromosome must be sorted and not overlap. A track may lack some chromosomes;
+ * the order of the chromosomes is worked out from all the tracks beforehand (see chromosomeOrder).
+ * Where all the tracks have the same intervals, the output is the same as FileIntegration's.
+ */
+class SweepIntegration {
+
+	/**
+	 * @param chromOrder - order of the chromosomes in all the tracks, see chromosomeOrder
+	 * @param partialTracks - number of tracks integrated into the first track if it is an earlier group's
+	 * partial output, 0 otherwise
+	 * @param partialOutput - true to write the partial output for a later group (in log space, the sum of logs)
+	 */
+	static File integration(ArrayList<TrackReader> readerList, String outfile, IntegrationConfig config,
+			List<String> chromOrder, int partialTracks, boolean partialOutput) throws IOException {
+
+		File integFile = new File(outfile);
+		BedGraphWriter pw = null;
+		try {
+			pw = new BedGraphWriter(integFile);
+		} catch (FileNotFoundException e) {
+			throw new FileNotFoundException("File not found: " + outfile);
+		}
+
+		FileIntegration.writeHeader(pw, outfile);
+
+		boolean logSpace = config.isLogSpace();
+		int nTracks = readerList.size();
+		TrackReader[] tracks = readerList.toArray(new TrackReader[nTracks]);
+
+		//what each track adds to the product where it has no interval, in the same order as in one pass
+		//(a partial output stands for all the tracks integrated into it)
+		double[] missing = new double[nTracks];
+		for (int i = 0; i < nTracks; i++) {
+			int times = i == 0 && partialTracks > 0 ? partialTracks : 1;
+			double m = logSpace ? 0 : 1;
+			for (int k = 0; k < times; k++) {
+				m = logSpace ? m + Math.log(config.getMissingValue()) : m * config.getMissingValue();
+			}
+			missing[i] = m;
+		}
+		boolean[] rawLogs = new boolean[nTracks]; //values already summed logs
+		rawLogs[0] = logSpace && partialTracks > 0;
+
+		//current interval of each track
+		byte[][] chroms = new byte[nTracks][];
+		int[] starts = new int[nTracks];
+		int[] ends = new int[nTracks];
+		double[] values = new double[nTracks];
+		boolean[] ended = new boolean[nTracks];
+		for (int i = 0; i < nTracks; i++) {
+			ended[i] = !tracks[i].next();
+			if (!ended[i]) {
+				chroms[i] = tracks[i].getChromBytes();
+				readInterval(tracks[i], i, starts, ends, values, logSpace && !rawLogs[i]);
+			}
+		}
+
+		boolean[] onChrom = new boolean[nTracks];
+
+		for (String chromName : chromOrder) {
+			byte[] chrom = chromName.getBytes(StandardCharsets.US_ASCII);
+			int pos = Integer.MAX_VALUE;
+			boolean anyOn = false;
+			for (int i = 0; i < nTracks; i++) {
+				onChrom[i] = !ended[i] && Arrays.equals(chroms[i], chrom);
+				if (onChrom[i]) {
+					pos = Math.min(pos, starts[i]);
+					anyOn = true;
+				}
+			}
+			if (!anyOn) continue;
+
+			int nOn;
+			do {
+				//next boundary after pos, of any track
+				int next = Integer.MAX_VALUE;
+				boolean covered = false;
+				for (int i = 0; i < nTracks; i++) {
+					if (!onChrom[i]) continue;
+					if (starts[i] > pos) {
+						next = Math.min(next, starts[i]);
+					}
+					else {
+						next = Math.min(next, ends[i]);
+						covered = true;
+					}
+				}
+
+				if (covered) {
+					double acc = logSpace ? 0 : 1;
+					for (int i = 0; i < nTracks; i++) {
+						double v = onChrom[i] && starts[i] <= pos ? values[i] : missing[i];
+						acc = logSpace ? acc + v : acc * v;
+					}
+					if (logSpace && !partialOutput) {
+						acc = Math.exp(acc);
+					}
+					pw.write(chrom);
+					pw.write('\t');
+					pw.writeInt(pos);
+					pw.write('\t');
+					pw.writeInt(next);
+					pw.write('\t');
+					pw.writeDouble(acc);
+					pw.newLine();
+				}
+				pos = next;
+
+				//move on the tracks whose interval ends here
+				nOn = 0;
+				for (int i = 0; i < nTracks; i++) {
+					if (!onChrom[i]) continue;
+					if (ends[i] <= pos) {
+						if (!tracks[i].next()) {
+							ended[i] = true;
+							onChrom[i] = false;
+							continue;
+						}
+						if (!tracks[i].chromEquals(chrom)) {
+							chroms[i] = tracks[i].getChromBytes();
+							readInterval(tracks[i], i, starts, ends, values, logSpace && !rawLogs[i]);
+							onChrom[i] = false;
+							continue;
+						}
+						readInterval(tracks[i], i, starts, ends, values, logSpace && !rawLogs[i]);
+						if (starts[i] < pos) {
+							System.err.println("Track intervals are not sorted: " + tracks[i].lineString());
+							System.exit(1);
+						}
+					}
+					nOn++;
+				}
+			} while (nOn > 0);
+		}
+
+		for (int i = 0; i < nTracks; i++) {
+			if (!ended[i]) { //a chromosome that is not where the order says
+				System.err.println("Tracks do not have their chromosomes in the same order: " + tracks[i].lineString());
+				System.exit(1);
+			}
+		}
+
+		for (TrackReader tr : tracks) {
+			tr.close();
+		}
+		pw.close();
+
+		return integFile;
+	}
+
+	/**
+	 * Finds the order of the chromosomes in the tracks (reading only where each chromosome starts), which
+	 * every track follows even if it lacks some of them
+	 * @throws IOException - if the tracks have their chromosomes in different orders
+	 */
+	static ArrayList<String> chromosomeOrder(List<File> files) throws IOException {
+		ArrayList<ArrayList<String>> lists = new ArrayList<ArrayList<String>>();
+		for (File f : files) {
+			ArrayList<String> chroms = new ArrayList<String>();
+			for (TrackSpan sp : TrackSpan.read(f)) {
+				chroms.add(sp.getChromNum());
+			}
+			lists.add(chroms);
+		}
+
+		//position of each chromosome in each track
+		ArrayList<HashMap<String, Integer>> positions = new ArrayList<HashMap<String, Integer>>();
+		for (ArrayList<String> chroms : lists) {
+			HashMap<String, Integer> pos = new HashMap<String, Integer>();
+			for (int k = 0; k < chroms.size(); k++) {
+				pos.put(chroms.get(k), k);
+			}
+			positions.add(pos);
+		}
+
+		//repeatedly take a track's next chromosome that no track has still to come after another
+		ArrayList<String> order = new ArrayList<String>();
+		int[] next = new int[lists.size()];
+		while (true) {
+			String chrom = null;
+			boolean remaining = false;
+			for (int t = 0; t < lists.size() && chrom == null; t++) {
+				if (next[t] >= lists.get(t).size()) continue;
+				remaining = true;
+				String c = lists.get(t).get(next[t]);
+				boolean blocked = false;
+				for (int u = 0; u < lists.size() && !blocked; u++) {
+					Integer p = positions.get(u).get(c);
+					blocked = p != null && p > next[u];
+				}
+				if (!blocked) chrom = c;
+			}
+			if (!remaining) break;
+			if (chrom == null) {
+				throw new IOException("Tracks do not have their chromosomes in the same order");
+			}
+			order.add(chrom);
+			for (int t = 0; t < lists.size(); t++) {
+				if (next[t] < lists.get(t).size() && lists.get(t).get(next[t]).equals(chrom)) {
+					next[t]++;
+				}
+			}
+		}
+		return order;
+	}
+
+	/** Reads the track's current interval into slot i, as a log if asked */
+	private static void readInterval(TrackReader tr, int i, int[] starts, int[] ends, double[] values, boolean log) {
+		starts[i] = tr.getStart();
+		ends[i] = tr.getEnd();
+		if (ends[i] <= starts[i]) {
+			System.err.println("Track interval is empty: " + tr.lineString());
+			System.exit(1);
+		}
+		values[i] = log ? Math.log(tr.getValue()) : tr.getValue();
+	}
+}
@@ -0,0 +1,129 @@
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The one work-stealing pool that all samples, chromosomes (and chunks) and integrations run on
+ * Tasks are submitted as futures (submit) and what depends on them is chained on the futures, so no thread of
+ * the pool blocks on another task. A task that waits for work of its own (reading ahead, parts of an
+ * integration) forks it (fork) and joins it, running it if no other thread has started it, so nesting
+ * neither deadlocks, nor needs a pool per level, nor makes the pool start threads past its size.
+ * Blocking on a future from inside the pool would do the latter: the pool would add a thread in its place.
+ */
+class TaskScheduler {
+
+	private static int nThreads = Runtime.getRuntime().availableProcessors();
+	private static ForkJoinPool pool;
+
+	/**
+	 * Sets the number of threads, must be called before the pool is first used
+	 */
+	public static synchronized void setThreads(int n) {
+		if (n <= 0) {
+			throw new IllegalArgumentException("Number of threads must be positive: " + n);
+		}
+		if (pool != null) {
+			throw new IllegalStateException("Scheduler already started with " + nThreads + " threads");
+		}
+		nThreads = n;
+	}
+
+	public static synchronized int getThreads() {
+		return nThreads;
+	}
+
+	/** @return the shared pool, started on first use */
+	public static synchronized ForkJoinPool pool() {
+		if (pool == null) {
+			//FIFO, so tasks start in the order they are submitted (also when submitted from inside the pool)
+			pool = new ForkJoinPool(nThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		}
+		return pool;
+	}
+
+	/**
+	 * Runs the task on the shared pool
+	 * @return future completed with the task's result, or exceptionally with what it threw, so later steps
+	 * can be chained on it without a thread waiting
+	 */
+	public static <T> CompletableFuture<T> submit(final Callable<T> task) {
+		final CompletableFuture<T> cf = new CompletableFuture<T>();
+		pool().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					cf.complete(task.call());
+				} catch (Throwable t) {
+					cf.completeExceptionally(t);
+				}
+			}
+		});
+		return cf;
+	}
+
+	/**
+	 * Runs a step of the calling task (reading ahead, writing behind) on the shared pool
+	 * The step is queued on the calling thread if it is one of the pool's, where an idle thread can take it
+	 * @return the step, to be waited for with await()
+	 */
+	public static <T> Stage<T> fork(Callable<T> step) {
+		Stage<T> s = new Stage<T>(step);
+		if (ForkJoinTask.getPool() == pool()) {
+			s.fork();
+		}
+		else {
+			pool().execute(s);
+		}
+		return s;
+	}
+
+	/**
+	 * A step forked by a task, which later waits for its result
+	 * If no other thread has started the step by then, the waiting thread runs it itself, so a task waiting
+	 * on its own steps neither blocks a thread of the pool nor makes it start more threads
+	 */
+	static final class Stage<T> extends ForkJoinTask<T> {
+		private static final long serialVersionUID = 1L;
+
+		private final Callable<T> step;
+		private T result;
+		private Throwable error;
+
+		Stage(Callable<T> s) {
+			step = s;
+		}
+
+		/** Waits for the step (running it if no thread has started it) and returns its result */
+		public T await() throws IOException {
+			join();
+			if (error instanceof IOException) throw (IOException) error;
+			if (error instanceof RuntimeException) throw (RuntimeException) error;
+			if (error instanceof Error) throw (Error) error;
+			if (error != null) throw new IOException(error);
+			return result;
+		}
+
+		@Override
+		public T getRawResult() {
+			return result;
+		}
+
+		@Override
+		protected void setRawResult(T value) {
+			result = value;
+		}
+
+		@Override
+		protected boolean exec() {
+			try {
+				result = step.call();
+			} catch (Throwable t) {
+				error = t; //given to the waiting task, rather than completing the step abnormally
+			}
+			return true;
+		}
+	}
+}
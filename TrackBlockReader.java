@@ -0,0 +1,236 @@
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Reads a cMBF track a block of intervals at a time, for integrating many bins at once
+ * A block holds up to its capacity of consecutive intervals, all of one chromosome
+ * With prefetch, the next block is read on the shared pool while the current one is used,
+ * so reading and parsing the track overlaps with the integration
+ */
+class TrackBlockReader implements Closeable {
+
+	/** A block of intervals */
+	private static class Block {
+		byte[] chrom;
+		int[] starts;
+		int[] ends;
+		double[] values;
+		/** values of each column of a count matrix (the first is values) */
+		double[][] columns;
+		int size;
+		/** true if the block ended with the track */
+		boolean last;
+		/** interval starting the next block, if the block ended with its chromosome */
+		String nextLine;
+
+		Block(int capacity, int nColumns) {
+			starts = new int[capacity];
+			ends = new int[capacity];
+			values = new double[capacity];
+			columns = new double[nColumns][];
+			columns[0] = values;
+			for (int c = 1; c < nColumns; c++) {
+				columns[c] = new double[capacity];
+			}
+		}
+	}
+
+	private TrackReader tr;
+	/** the reader if it reads a count matrix, whose other columns are kept as well */
+	private ReadCountReader matrix;
+	/** true if the reader is on an interval that starts the next block */
+	private boolean pending;
+	private boolean endReached;
+	/** true if the current block is to be given again by the next readBlock() */
+	private boolean held;
+
+	/** block being used */
+	private Block current;
+	/** block being read ahead, if prefetching */
+	private Block ahead;
+	private TaskScheduler.Stage<Block> aheadStage;
+	/** time spent waiting for blocks read ahead */
+	private long waitNanos;
+
+	public TrackBlockReader(TrackReader t, int capacity) {
+		this(t, capacity, false);
+	}
+
+	public TrackBlockReader(TrackReader t, int capacity, boolean prefetch) {
+		tr = t;
+		int nColumns = 1;
+		if (t instanceof ReadCountReader && ((ReadCountReader) t).getColumns() > 1) {
+			matrix = (ReadCountReader) t;
+			nColumns = matrix.getColumns();
+		}
+		current = new Block(capacity, nColumns);
+		if (prefetch) {
+			ahead = new Block(capacity, nColumns);
+			aheadStage = forkFill(ahead);
+		}
+	}
+
+	/**
+	 * Reads the next block
+	 * @return number of intervals in the block, 0 at the end of the track
+	 */
+	public int readBlock() throws IOException {
+		if (held) {
+			held = false;
+			return current.size;
+		}
+		if (ahead == null) {
+			fill(current);
+			return current.size;
+		}
+		if (aheadStage == null) { //the track ended with the current block
+			current = emptyBlock(current);
+			return 0;
+		}
+
+		long t0 = System.nanoTime();
+		Block b = aheadStage.await();
+		waitNanos += System.nanoTime() - t0;
+		ahead = current;
+		current = b;
+		aheadStage = current.last ? null : forkFill(ahead);
+		return current.size;
+	}
+
+	/**
+	 * Keeps the current block for the next readBlock(), for a reader that has read one block too far
+	 * (into the next chromosome, of input shared by the chromosomes in turn)
+	 */
+	public void unreadBlock() {
+		held = true;
+	}
+
+	private TaskScheduler.Stage<Block> forkFill(final Block b) {
+		return TaskScheduler.fork(new Callable<Block>() {
+			@Override
+			public Block call() throws IOException {
+				fill(b);
+				return b;
+			}
+		});
+	}
+
+	private static Block emptyBlock(Block b) {
+		b.size = 0;
+		b.last = true;
+		b.nextLine = null;
+		return b;
+	}
+
+	/** Reads the track's next block into b */
+	private void fill(Block b) throws IOException {
+		b.size = 0;
+		b.nextLine = null;
+		if (!pending && (endReached || !tr.next())) {
+			endReached = true;
+			b.last = true;
+			return;
+		}
+		pending = false;
+		b.chrom = tr.getChromBytes();
+
+		int capacity = b.values.length;
+		while (true) {
+			b.starts[b.size] = tr.getStart();
+			b.ends[b.size] = tr.getEnd();
+			b.values[b.size] = tr.getValue();
+			if (matrix != null) {
+				for (int c = 1; c < b.columns.length; c++) {
+					b.columns[c][b.size] = matrix.getValue(c);
+				}
+			}
+			b.size++;
+			if (b.size == capacity) break;
+			if (!tr.next()) {
+				endReached = true;
+				break;
+			}
+			if (!tr.chromEquals(b.chrom)) {
+				pending = true;
+				b.nextLine = tr.lineString();
+				break;
+			}
+		}
+		b.last = endReached;
+	}
+
+	/** @return time spent waiting for blocks read ahead (0 without prefetch) */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	/** @return true if the block ended with the track */
+	public boolean isEndReached() {
+		return current.last;
+	}
+
+	public byte[] getChromBytes() {
+		return current.chrom;
+	}
+
+	public int[] getStarts() {
+		return current.starts;
+	}
+
+	public int[] getEnds() {
+		return current.ends;
+	}
+
+	public double[] getValues() {
+		return current.values;
+	}
+
+	/** @return values of a column of a count matrix (column 0 is getValues()) */
+	public double[] getValues(int column) {
+		return current.columns[column];
+	}
+
+	public int size() {
+		return current.size;
+	}
+
+	/**
+	 * @return index of the first of the first n intervals whose region differs from the other block's,
+	 * -1 if they all match
+	 */
+	public int firstMismatch(TrackBlockReader other, int n) {
+		if (!Arrays.equals(current.chrom, other.current.chrom)) return 0;
+		int[] starts = current.starts;
+		int[] ends = current.ends;
+		for (int j = 0; j < n; j++) {
+			if (starts[j] != other.current.starts[j] || ends[j] != other.current.ends[j]) return j;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the block's interval j, or the interval starting the next block if j is the block's size,
+	 * for error messages
+	 */
+	public String intervalString(int j) {
+		if (j >= current.size) return current.nextLine;
+		return new String(current.chrom, StandardCharsets.US_ASCII) + "\t" + current.starts[j] + "\t"
+				+ current.ends[j] + "\t" + current.values[j];
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (aheadStage != null) { //let a read in progress finish before closing under it
+			try {
+				aheadStage.await();
+			} catch (Exception e) {
+				//already reported, or not needed
+			}
+		}
+		tr.close();
+	}
+}
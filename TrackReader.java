@@ -0,0 +1,30 @@
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A cMBF track read one interval at a time (bedGraph or binary)
+ */
+interface TrackReader extends Closeable {
+
+	/**
+	 * Moves to the next interval
+	 * @return false if the end of the track was reached
+	 */
+	boolean next() throws IOException;
+
+	/** @return true if the current interval's chromosome equals the given name */
+	boolean chromEquals(byte[] chrom);
+
+	byte[] getChromBytes();
+
+	int getStart();
+
+	int getEnd();
+
+	/** @return the cMBF, as written to a bedGraph track (5 decimals) */
+	double getValue();
+
+	/** @return the current interval, for error messages */
+	String lineString();
+}
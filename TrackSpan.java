@@ -0,0 +1,83 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Where one chromosome lies in a cMBF track: the start of its first interval, the end of its last,
+ * and the size of its first interval. Found without reading the track's intervals
+ * (by the chromosome index for bedGraph, by the segment headers for binary tracks)
+ */
+class TrackSpan {
+
+	private String _chromNum;
+	private int _start;
+	private int _end;
+	private int _intervalSize;
+	/** byte range of the chromosome's lines in a bedGraph track, null for a binary track */
+	private ChromRange _chromRange;
+
+	public TrackSpan(String cN, int s, int e, int iS, ChromRange cR) {
+		_chromNum = cN;
+		_start = s;
+		_end = e;
+		_intervalSize = iS;
+		_chromRange = cR;
+	}
+
+	/**
+	 * @return the spans of the track's chromosomes, in file order
+	 * @throws IOException - if the file cannot be read, or a chromosome appears in more than one block (unsorted)
+	 */
+	public static ArrayList<TrackSpan> read(File f) throws IOException {
+		if (f.getName().endsWith(BinaryTrackWriter.EXTENSION)) {
+			return BinaryTrackReader.spans(f);
+		}
+
+		ArrayList<TrackSpan> spans = new ArrayList<TrackSpan>();
+		ArrayList<ChromRange> ranges = BedChromIndex.build(f);
+		BedChromIndex idx = BedChromIndex.open(f);
+		try {
+			for (ChromRange cr : ranges) {
+				if (!idx.readFirstLine(cr)) continue;
+				int start = idx.getBinStart();
+				int intervalSize = idx.getBinEnd() - start;
+				idx.readLastLine(cr);
+				spans.add(new TrackSpan(cr.getChromNum(), start, idx.getBinEnd(), intervalSize, cr));
+			}
+		} finally {
+			idx.close();
+		}
+		return spans;
+	}
+
+	public String getChromNum() {
+		return _chromNum;
+	}
+
+	public int getStart() {
+		return _start;
+	}
+
+	public int getEnd() {
+		return _end;
+	}
+
+	public int getIntervalSize() {
+		return _intervalSize;
+	}
+
+	public ChromRange getChromRange() {
+		return _chromRange;
+	}
+
+	/** @return true if the other span has the same chromosome, start, end and interval size */
+	public boolean sameAs(TrackSpan o) {
+		return _chromNum.equals(o._chromNum) && _start == o._start && _end == o._end && _intervalSize == o._intervalSize;
+	}
+
+	@Override
+	public String toString() {
+		return "[chrom:" + _chromNum + ", start:" + _start + ", end:" + _end + ", intervalSize:" + _intervalSize + "]";
+	}
+}
@@ -0,0 +1,12 @@
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of a cMBF track, written one interval at a time (bedGraph or binary)
+ */
+interface TrackWriter extends Closeable {
+
+	/** Adds the next interval of the track */
+	void add(byte[] chrom, int start, int end, double cMBF) throws IOException;
+}
@@ -0,0 +1,355 @@
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes small alignment fixtures for test/run_tests.sh: the same reads as SAM (x.sam) and as BAM with its
+ * index (x.bam, x.bam.bai), and the counts expected of them as bed files of every bin (exp_starts.bed for
+ * reads, exp_cov.bed for aligned bases), so that each way of reading alignments can be compared with the bed
+ * The reads have soft and hard clips, deletions, insertions, skips and =/X operations, reads that are left out
+ * (unmapped, secondary, failing QC, duplicates, no CIGAR) and unplaced reads at the end; the BAM's records
+ * straddle its BGZF blocks.
+ * Usage: java AlignmentFixtures [dir] [seed] [binSize]
+ */
+class AlignmentFixtures {
+
+	private static final String CIGAR_OPS = "MIDNSHP=X";
+	private static final String[] REF_NAMES = { "chr1", "chr2", "chr3", "chrM", "chr4" };
+	private static final int[] REF_LENGTHS = { 50000, 30000, 10000, 16569, 20000 };
+	/** reads left out: unmapped, secondary, failing QC, duplicates */
+	private static final int SKIP_FLAGS = 0x4 | 0x100 | 0x200 | 0x400;
+	private static final int[] FLAGS = { 0, 0, 0, 16, 16, 0x100, 0x400, 0x200, 0x4, 1 | 2 | 64 };
+	/** uncompressed bytes per BGZF block of records, small so that records straddle blocks */
+	private static final int BLOCK_SIZE = 700;
+
+	/** An alignment: reference (-1 if unplaced), leftmost position (0-based), flag and CIGAR */
+	private static class Read {
+		int ref;
+		int pos;
+		int flag;
+		ArrayList<int[]> cigar = new ArrayList<int[]>();
+
+		Read(int r, int p, int f) {
+			ref = r;
+			pos = p;
+			flag = f;
+		}
+
+		void op(int len, char op) {
+			cigar.add(new int[] { len, CIGAR_OPS.indexOf(op) });
+		}
+
+		int refLength() {
+			int n = 0;
+			for (int[] o : cigar) {
+				if ("MDN=X".indexOf(CIGAR_OPS.charAt(o[1])) >= 0) n += o[0];
+			}
+			return n;
+		}
+
+		boolean counted() {
+			return ref >= 0 && (flag & SKIP_FLAGS) == 0 && !cigar.isEmpty();
+		}
+	}
+
+	/** Little-endian writes of BAM fields */
+	private static class LEBuffer extends ByteArrayOutputStream {
+		void i32(int v) {
+			write(v);
+			write(v >>> 8);
+			write(v >>> 16);
+			write(v >>> 24);
+		}
+
+		void u16(int v) {
+			write(v);
+			write(v >>> 8);
+		}
+
+		void i64(long v) {
+			i32((int) v);
+			i32((int) (v >>> 32));
+		}
+
+		void bytes(byte[] b) {
+			write(b, 0, b.length);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : ".");
+		Random rnd = new Random(args.length > 1 ? Long.parseLong(args[1]) : 3);
+		int binSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+		ArrayList<Read> reads = generate(rnd);
+		writeSam(new File(dir, "x.sam"), reads);
+		writeBam(new File(dir, "x.bam"), new File(dir, "x.bam.bai"), reads);
+		writeExpected(new File(dir, "exp_starts.bed"), reads, binSize, false);
+		writeExpected(new File(dir, "exp_cov.bed"), reads, binSize, true);
+	}
+
+	/** @return sorted reads on every reference but chr3 (few on chr4), then unplaced reads */
+	private static ArrayList<Read> generate(Random rnd) {
+		ArrayList<Read> reads = new ArrayList<Read>();
+		for (int r = 0; r < REF_NAMES.length; r++) {
+			if (REF_NAMES[r].equals("chr3")) continue;
+			int n = REF_NAMES[r].equals("chr4") ? 3 : 200 + rnd.nextInt(2300);
+			for (int k = 0; k < n; k++) {
+				Read read = new Read(r, rnd.nextInt(REF_LENGTHS[r] - 200), FLAGS[rnd.nextInt(FLAGS.length)]);
+				if (rnd.nextDouble() < 0.02) { //no CIGAR
+					reads.add(read);
+					continue;
+				}
+				if (rnd.nextDouble() < 0.2) read.op(1 + rnd.nextInt(20), 'S');
+				read.op(5 + rnd.nextInt(56), 'M');
+				double x = rnd.nextDouble();
+				if (x < 0.1) {
+					read.op(1 + rnd.nextInt(5), 'D');
+					read.op(5 + rnd.nextInt(36), 'M');
+				}
+				else if (x < 0.2) {
+					read.op(1 + rnd.nextInt(5), 'I');
+					read.op(5 + rnd.nextInt(36), 'M');
+				}
+				else if (x < 0.3) {
+					read.op(100 + rnd.nextInt(2901), 'N');
+					read.op(5 + rnd.nextInt(36), '=');
+					read.op(3, 'X');
+				}
+				if (rnd.nextDouble() < 0.1) read.op(1 + rnd.nextInt(20), 'H');
+				reads.add(read);
+			}
+		}
+		Collections.sort(reads, new Comparator<Read>() {
+			@Override
+			public int compare(Read a, Read b) {
+				return a.ref != b.ref ? Integer.compare(a.ref, b.ref) : Integer.compare(a.pos, b.pos);
+			}
+		});
+		for (int k = 0; k < 5; k++) {
+			reads.add(new Read(-1, -1, 0x4));
+		}
+		return reads;
+	}
+
+	private static void writeSam(File f, ArrayList<Read> reads) throws IOException {
+		PrintWriter pw = new PrintWriter(f);
+		pw.print(samHeader());
+		for (int i = 0; i < reads.size(); i++) {
+			Read read = reads.get(i);
+			StringBuilder cigar = new StringBuilder();
+			for (int[] o : read.cigar) {
+				cigar.append(o[0]).append(CIGAR_OPS.charAt(o[1]));
+			}
+			pw.print("r" + i + "\t" + read.flag + "\t" + (read.ref >= 0 ? REF_NAMES[read.ref] : "*") + "\t" + (read.pos + 1)
+					+ "\t60\t" + (cigar.length() > 0 ? cigar : "*") + "\t*\t0\t0\tACGT\tIIII\tNM:i:0\n");
+		}
+		pw.close();
+	}
+
+	private static String samHeader() {
+		StringBuilder sb = new StringBuilder("@HD\tVN:1.6\tSO:coordinate\n");
+		for (int r = 0; r < REF_NAMES.length; r++) {
+			sb.append("@SQ\tSN:").append(REF_NAMES[r]).append("\tLN:").append(REF_LENGTHS[r]).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/** Writes the BAM (header block, records in blocks of BLOCK_SIZE bytes, end marker) and its index */
+	private static void writeBam(File bamFile, File baiFile, ArrayList<Read> reads) throws IOException {
+		LEBuffer header = new LEBuffer();
+		byte[] text = "@HD\tVN:1.6\tSO:coordinate\n".getBytes(StandardCharsets.US_ASCII);
+		header.bytes(new byte[] { 'B', 'A', 'M', 1 });
+		header.i32(text.length);
+		header.bytes(text);
+		header.i32(REF_NAMES.length);
+		for (int r = 0; r < REF_NAMES.length; r++) {
+			header.i32(REF_NAMES[r].length() + 1);
+			header.bytes((REF_NAMES[r] + "\0").getBytes(StandardCharsets.US_ASCII));
+			header.i32(REF_LENGTHS[r]);
+		}
+
+		LEBuffer records = new LEBuffer();
+		int[] recStart = new int[reads.size() + 1];
+		int[] bins = new int[reads.size()];
+		for (int i = 0; i < reads.size(); i++) {
+			Read read = reads.get(i);
+			recStart[i] = records.size();
+			byte[] name = ("r" + i + "\0").getBytes(StandardCharsets.US_ASCII);
+			bins[i] = read.ref >= 0 ? reg2bin(read.pos, read.pos + Math.max(1, read.refLength())) : 4680;
+			records.i32(32 + name.length + 4 * read.cigar.size() + 2 + 4);
+			records.i32(read.ref);
+			records.i32(read.pos);
+			records.write(name.length);
+			records.write(60);
+			records.u16(bins[i]);
+			records.u16(read.cigar.size());
+			records.u16(read.flag);
+			records.i32(4); //ACGT
+			records.i32(-1);
+			records.i32(-1);
+			records.i32(0);
+			records.bytes(name);
+			for (int[] o : read.cigar) {
+				records.i32(o[0] << 4 | o[1]);
+			}
+			records.bytes(new byte[] { 0x12, 0x48, 40, 40, 40, 40 });
+		}
+		recStart[reads.size()] = records.size();
+
+		//compressed offset of each block of records, for the virtual offsets of the index
+		byte[] stream = records.toByteArray();
+		FileOutputStream out = new FileOutputStream(bamFile);
+		byte[] hb = header.toByteArray();
+		long coff = writeBlock(out, hb, 0, hb.length);
+		int nBlocks = (stream.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		long[] blockOffsets = new long[nBlocks + 1];
+		for (int b = 0; b < nBlocks; b++) {
+			blockOffsets[b] = coff;
+			coff += writeBlock(out, stream, b * BLOCK_SIZE, Math.min(BLOCK_SIZE, stream.length - b * BLOCK_SIZE));
+		}
+		blockOffsets[nBlocks] = coff;
+		writeBlock(out, new byte[0], 0, 0);
+		out.close();
+
+		LEBuffer bai = new LEBuffer();
+		bai.bytes(new byte[] { 'B', 'A', 'I', 1 });
+		bai.i32(REF_NAMES.length);
+		for (int r = 0; r < REF_NAMES.length; r++) {
+			LinkedHashMap<Integer, ArrayList<long[]>> chunks = new LinkedHashMap<Integer, ArrayList<long[]>>();
+			int first = -1, last = -1;
+			for (int i = 0; i < reads.size(); i++) {
+				if (reads.get(i).ref != r) continue;
+				if (first < 0) first = i;
+				last = i;
+				if (!chunks.containsKey(bins[i])) chunks.put(bins[i], new ArrayList<long[]>());
+				chunks.get(bins[i]).add(new long[] { virtualOffset(recStart[i], blockOffsets),
+						virtualOffset(recStart[i + 1], blockOffsets) });
+			}
+			if (first < 0) {
+				bai.i32(0);
+				bai.i32(0);
+				continue;
+			}
+			bai.i32(chunks.size() + 1);
+			for (Integer bin : chunks.keySet()) {
+				bai.i32(bin);
+				bai.i32(chunks.get(bin).size());
+				for (long[] c : chunks.get(bin)) {
+					bai.i64(c[0]);
+					bai.i64(c[1]);
+				}
+			}
+			long firstOffset = virtualOffset(recStart[first], blockOffsets);
+			bai.i32(37450); //pseudo-bin: first and last offsets, mapped and unmapped reads
+			bai.i32(2);
+			bai.i64(firstOffset);
+			bai.i64(virtualOffset(recStart[last + 1], blockOffsets));
+			bai.i64(last - first + 1);
+			bai.i64(0);
+			bai.i32(1); //linear index
+			bai.i64(firstOffset);
+		}
+		bai.i64(5); //unplaced reads
+		FileOutputStream bo = new FileOutputStream(baiFile);
+		bai.writeTo(bo);
+		bo.close();
+	}
+
+	/** @return virtual offset of an offset in the records (past the last block, the end marker's) */
+	private static long virtualOffset(int off, long[] blockOffsets) {
+		int b = off / BLOCK_SIZE;
+		if (b >= blockOffsets.length - 1) return blockOffsets[blockOffsets.length - 1] << 16;
+		return blockOffsets[b] << 16 | (off - b * BLOCK_SIZE);
+	}
+
+	/**
+	 * Writes one BGZF block of the given bytes
+	 * @return its compressed size
+	 */
+	private static int writeBlock(FileOutputStream out, byte[] u, int off, int len) throws IOException {
+		Deflater d = new Deflater(6, true);
+		d.setInput(u, off, len);
+		d.finish();
+		byte[] c = new byte[len + 1024];
+		int n = 0;
+		while (!d.finished()) {
+			n += d.deflate(c, n, c.length - n);
+		}
+		d.end();
+		CRC32 crc = new CRC32();
+		crc.update(u, off, len);
+
+		LEBuffer b = new LEBuffer();
+		b.bytes(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 });
+		b.u16(n + 25); //block size - 1
+		b.write(c, 0, n);
+		b.i32((int) crc.getValue());
+		b.i32(len);
+		b.writeTo(out);
+		return b.size();
+	}
+
+	/** BAI bin of a region, as in the SAM specification */
+	private static int reg2bin(int beg, int end) {
+		--end;
+		if (beg >> 14 == end >> 14) return ((1 << 15) - 1) / 7 + (beg >> 14);
+		if (beg >> 17 == end >> 17) return ((1 << 12) - 1) / 7 + (beg >> 17);
+		if (beg >> 20 == end >> 20) return ((1 << 9) - 1) / 7 + (beg >> 20);
+		if (beg >> 23 == end >> 23) return ((1 << 6) - 1) / 7 + (beg >> 23);
+		if (beg >> 26 == end >> 26) return ((1 << 3) - 1) / 7 + (beg >> 26);
+		return 0;
+	}
+
+	/**
+	 * Writes the expected counts: for every reference with reads counted, every bin from 0 to its length
+	 * (or to the last bin a read reaches), by reads starting in it or with coverage by aligned bases in it
+	 */
+	private static void writeExpected(File f, ArrayList<Read> reads, int binSize, boolean coverage) throws IOException {
+		PrintWriter pw = new PrintWriter(f);
+		for (int r = 0; r < REF_NAMES.length; r++) {
+			int lastBin = (REF_LENGTHS[r] - 1) / binSize;
+			boolean any = false;
+			for (Read read : reads) {
+				if (read.ref != r || !read.counted()) continue;
+				any = true;
+				lastBin = Math.max(lastBin, (coverage ? read.pos + read.refLength() - 1 : read.pos) / binSize);
+			}
+			if (!any) continue;
+
+			long[] counts = new long[lastBin + 1];
+			for (Read read : reads) {
+				if (read.ref != r || !read.counted()) continue;
+				if (!coverage) {
+					counts[read.pos / binSize]++;
+					continue;
+				}
+				int p = read.pos;
+				for (int[] o : read.cigar) {
+					char op = CIGAR_OPS.charAt(o[1]);
+					if ("M=X".indexOf(op) >= 0) {
+						for (int q = p; q < p + o[0]; q++) {
+							counts[q / binSize]++;
+						}
+					}
+					if ("MDN=X".indexOf(op) >= 0) p += o[0];
+				}
+			}
+			for (int b = 0; b <= lastBin; b++) {
+				pw.print(REF_NAMES[r] + "\t" + b * binSize + "\t" + (b * binSize + binSize) + "\t" + counts[b] + "\n");
+			}
+		}
+		pw.close();
+	}
+}
@@ -0,0 +1,76 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Computes the cMBF tracks of a bed file of read counts for test/run_tests.sh the plain way: each interval's
+ * window is copied and sorted for its median, as before the running median, so that Driver's tracks can be
+ * compared with it. Each chromosome's window is held in place at its ends, and a chromosome shorter than the
+ * window takes the median of all of its intervals.
+ * Writes [outDir]/ref_[chrom].bedGraph per chromosome, without the track line.
+ * Usage: java MedianReference [input.bed] [window size (bp)] [minRC] [median multiple] [outDir]
+ */
+class MedianReference {
+
+	public static void main(String[] args) throws IOException {
+		File in = new File(args[0]);
+		int windowbp = Integer.parseInt(args[1]);
+		double minRC = Double.parseDouble(args[2]);
+		double medianMult = Double.parseDouble(args[3]);
+		File outDir = new File(args[4]);
+
+		BufferedReader br = new BufferedReader(new FileReader(in));
+		try {
+			String chrom = null;
+			ArrayList<String[]> lines = new ArrayList<String[]>();
+			for (String line = br.readLine(); line != null; line = br.readLine()) {
+				String[] f = line.split("\t");
+				if (chrom != null && !f[0].equals(chrom)) {
+					writeChrom(chrom, lines, windowbp, minRC, medianMult, outDir);
+					lines.clear();
+				}
+				chrom = f[0];
+				lines.add(f);
+			}
+			if (chrom != null) {
+				writeChrom(chrom, lines, windowbp, minRC, medianMult, outDir);
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+	private static void writeChrom(String chrom, ArrayList<String[]> lines, int windowbp, double minRC, double medianMult,
+			File outDir) throws IOException {
+		int n = lines.size();
+		double[] counts = new double[n];
+		for (int i = 0; i < n; i++) {
+			int rc = Integer.parseInt(lines.get(i)[3]);
+			counts[i] = rc > 0 ? rc : minRC;
+		}
+		int intSize = Integer.parseInt(lines.get(0)[2]) - Integer.parseInt(lines.get(0)[1]);
+		int w = Math.min(windowbp / intSize, n);
+
+		PrintWriter pw = new PrintWriter(new File(outDir, "ref_" + chrom + ".bedGraph"));
+		try {
+			for (int i = 0; i < n; i++) {
+				int first = Math.max(0, Math.min(i - (w - 1) / 2, n - w));
+				double[] window = Arrays.copyOfRange(counts, first, first + w);
+				Arrays.sort(window);
+				double median = w % 2 == 0 ? (window[w / 2 - 1] + window[w / 2]) / 2 : window[w / 2];
+				double z = counts[i] / (medianMult * median);
+				String[] f = lines.get(i);
+				pw.print(f[0] + "\t" + f[1] + "\t" + f[2] + "\t");
+				pw.print(String.format(Locale.ROOT, "%.5f", 1 - Math.exp(-1 * (z * z) / 2)));
+				pw.print('\n');
+			}
+		} finally {
+			pw.close();
+		}
+	}
+}
@@ -0,0 +1,168 @@
+#!/bin/bash
+# Builds GMIM and runs the checks below on small generated inputs
+# Usage: CLI_JAR=/path/to/commons-cli-1.4.jar test/run_tests.sh
+# Exits non-zero if any check fails
+
+CLI_JAR=${CLI_JAR:?set CLI_JAR to the commons-cli jar}
+SRC=$(cd "$(dirname "$0")/.." && pwd)
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+shopt -s nullglob
+mkdir "$WORK/classes"
+javac -nowarn -source 8 -target 8 -Xlint:-options -cp "$CLI_JAR" -d "$WORK/classes" "$SRC"/*.java "$SRC"/test/*.java || exit 1
+CP="$WORK/classes:$CLI_JAR"
+FAILED=0
+
+fail() {
+	echo "FAIL: $*"
+	FAILED=1
+}
+
+# The running median (with removals deferred to the next insert) must give the same tracks as sorting a
+# copy of each window (see MedianReference), over random counts with many ties, even and odd windows,
+# chunked or not, and a chromosome shorter than the window
+check_median() {
+	local d="$WORK/median"
+	mkdir "$d" "$d/ref"
+	awk 'BEGIN {
+		srand(7)
+		for (i = 0; i < 20000; i++) {
+			r = rand()
+			k = r < 0.3 ? 0 : r < 0.8 ? int(rand() * 6) : r < 0.95 ? int(rand() * 100) : int(rand() * 5000)
+			printf "chr1\t%d\t%d\t%d\n", i * 50, i * 50 + 50, k
+		}
+		for (i = 0; i < 7; i++) printf "chr2\t%d\t%d\t%d\n", 1000 + i * 50, 1050 + i * 50, int(rand() * 4)
+		for (i = 0; i < 5000; i++) printf "chr3\t%d\t%d\t%d\n", i * 50, i * 50 + 50, int(rand() * 1000)
+	}' > "$d/med.bed"
+	for w in 1000 1050 5000; do
+		rm -f "$d"/ref/*
+		java -cp "$CP" MedianReference "$d/med.bed" $w 0.5 1 "$d/ref" || { fail "median reference (-w $w)"; continue; }
+		for opts in "" "-c 1000"; do
+			rm -rf "$d/med_out"
+			java -cp "$CP" Driver -i "$d/med.bed" -w $w -z 0.5 -m 1 $opts > /dev/null 2>&1 || { fail "median input (-w $w $opts)"; continue; }
+			for f in "$d"/ref/ref_*; do
+				c=${f##*/ref_}
+				cmp -s "$f" <(tail -n +2 "$d/med_out/out_$c") || fail "running median (-w $w $opts): $c differs from sorting each window"
+			done
+		done
+	done
+	echo "running median: done"
+}
+
+# Input with a chromosome in two blocks (chr1, chr2, chr1) must be reported as unsorted, not computed
+# with the chr2 lines taken as chr1's; sorted with -so it runs
+check_split_chrom() {
+	local d="$WORK/split"
+	mkdir "$d"
+	awk 'BEGIN {
+		for (i = 0; i < 8000; i++) printf "chr1\t%d\t%d\t%d\n", i * 100, i * 100 + 100, i % 37
+		for (i = 0; i < 300; i++) printf "chr2\t%d\t%d\t%d\n", i * 100, i * 100 + 100, i % 11
+		for (i = 8000; i < 16000; i++) printf "chr1\t%d\t%d\t%d\n", i * 100, i * 100 + 100, i % 37
+	}' > "$d/split.bed"
+	for opts in "" "-c 1000"; do
+		if java -cp "$CP" Driver -i "$d/split.bed" -w 1000 $opts > "$d/log.txt" 2>&1; then
+			fail "split chromosome input ($opts) was not reported"
+		elif ! grep -q "Input is not sorted" "$d/log.txt"; then
+			fail "split chromosome input ($opts): $(tail -1 "$d/log.txt")"
+		fi
+	done
+	if ! java -cp "$CP" Driver -i "$d/split.bed" -w 1000 -so > "$d/log.txt" 2>&1; then
+		fail "split chromosome input with -so: $(tail -1 "$d/log.txt")"
+	elif [ "$(grep -c . "$d/split.sorted_out/out_chr2.bedGraph")" -ne 301 ]; then
+		fail "split chromosome input with -so: chr2 not computed"
+	fi
+	echo "split chromosome input: done"
+}
+
+# Run-length input (-g) must give the same tracks as the runs expanded to bins: runs over whole bins,
+# runs over part of a bin or across bin edges (means kept whole numbers), and runs only touching a bin
+# (mean below minRC), which must score as the empty bin they expand to
+check_runlength() {
+	local d="$WORK/runlength"
+	mkdir "$d"
+	awk -v runs="$d/runs.bed" -v dense="$d/dense.bed" 'BEGIN {
+		srand(5)
+		split("chr1 chr2", chroms, " ")
+		split("3000 500", sizes, " ")
+		for (c = 1; c <= 2; c++) {
+			n = sizes[c]; last = 0; i = 0
+			while (i < n) {
+				r = i == 0 ? 0 : rand(); k = 1 + int(rand() * 20)
+				if (r < 0.4) { #whole bins
+					len = 1 + int(rand() * rand() * 30)
+					if (i + len > n) len = n - i
+					printf "%s\t%d\t%d\t%d\n", chroms[c], i * 100, (i + len) * 100, k > runs
+					for (j = 0; j < len; j++) count[i + j] = k
+					i += len; last = i - 1
+				} else if (r < 0.55) { #half a bin, twice the count
+					o = int(rand() * 50)
+					printf "%s\t%d\t%d\t%d\n", chroms[c], i * 100 + o, i * 100 + o + 50, 2 * k > runs
+					count[i] = k; last = i; i++
+				} else if (r < 0.7) { #only touching the bin
+					printf "%s\t%d\t%d\t1\n", chroms[c], i * 100 + 30, i * 100 + 33 > runs
+					count[i] = 0; last = i; i++
+				} else if (r < 0.8 && i + 3 <= n) { #across two bin edges
+					printf "%s\t%d\t%d\t%d\n", chroms[c], i * 100 + 50, i * 100 + 250, 2 * k > runs
+					count[i] = k; count[i + 1] = 2 * k; count[i + 2] = k; last = i + 2; i += 3
+				} else { #empty
+					count[i] = 0; i++
+				}
+			}
+			for (j = 0; j <= last; j++) printf "%s\t%d\t%d\t%d\n", chroms[c], j * 100, j * 100 + 100, count[j] > dense
+		}
+	}'
+	for w in 1000 2500; do
+		rm -rf "$d/runs_out" "$d/dense_out"
+		java -cp "$CP" Driver -i "$d/runs.bed" -g 100 -w $w > /dev/null 2>&1 || { fail "run-length input (-w $w)"; continue; }
+		java -cp "$CP" Driver -i "$d/dense.bed" -w $w > /dev/null 2>&1 || { fail "expanded run-length input (-w $w)"; continue; }
+		[ -f "$d/dense_out/out_chr1.bedGraph" ] || fail "expanded run-length input (-w $w): no tracks written"
+		for f in "$d"/dense_out/out_*; do
+			cmp -s <(tail -n +2 "$f") <(tail -n +2 "$d/runs_out/${f##*/}") || fail "run-length input (-w $w): ${f##*/} differs from the expanded runs"
+		done
+	done
+	echo "run-length input: done"
+}
+
+# Alignments read from an indexed BAM, a BAM without its index, SAM and piped SAM (see AlignmentFixtures)
+# must give the same tracks as the bed of the counts expected of them, counting reads and aligned bases
+check_alignments() {
+	local bin=$1 window=$2
+	local d="$WORK/align_$bin"
+	mkdir "$d"
+	java -cp "$CP" AlignmentFixtures "$d" 3 "$bin" || { fail "alignment fixtures"; return; }
+	(
+		cd "$d"
+		for mode in starts cov; do
+			opt=""
+			[ $mode = cov ] && opt="-cov"
+			java -cp "$CP" Driver -i exp_$mode.bed -w $window -o e > /dev/null 2>&1 || echo "FAIL: bed of expected $mode"
+			java -cp "$CP" Driver -i x.bam -a $bin $opt -w $window -o bam > /dev/null 2>&1 || echo "FAIL: BAM $mode"
+			java -cp "$CP" Driver -i x.sam -a $bin $opt -w $window -o sam > /dev/null 2>&1 || echo "FAIL: SAM $mode"
+			java -cp "$CP" Driver -i - -a $bin $opt -w $window -o psam < x.sam > /dev/null 2>&1 || echo "FAIL: piped SAM $mode"
+			mv x.bam.bai hold.bai
+			java -cp "$CP" Driver -i x.bam -a $bin $opt -w $window -o nbam > /dev/null 2>&1 || echo "FAIL: unindexed BAM $mode"
+			mv hold.bai x.bam.bai
+			for f in exp_${mode}_out/e_*; do
+				c=${f##*/e_}
+				for o in x_out/bam x_out/sam x_out/nbam stdin_out/psam; do
+					cmp -s <(tail -n +2 "$f") <(tail -n +2 "${o}_$c") || echo "FAIL: $o $mode $c differs from the expected counts"
+				done
+			done
+			rm -rf x_out stdin_out
+		done
+	) > "$d/result.txt"
+	if grep -q FAIL "$d/result.txt"; then
+		FAILED=1
+		cat "$d/result.txt"
+	fi
+	echo "alignments (bin $bin): done"
+}
+
+check_median
+check_split_chrom
+check_runlength
+check_alignments 100 1000
+check_alignments 7 70
+
+exit $FAILED